@@ -0,0 +1,95 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.provider.Settings;
+import android.test.InstrumentationTestCase;
+
+/**
+ * Blocks the main thread, as a slow callback of the app would, while the
+ * service runs a cat in from the edge of the screen, and checks from the
+ * flight recorder that the render thread kept ticking and moving it at
+ * least at the physics rate all along.
+ * <p>
+ * The app needs to be allowed to draw overlays; on Android 6 and later
+ * the test grants itself that through appops.
+ */
+public class RenderThreadStallTest extends InstrumentationTestCase {
+    private static final long SETTLE = 1000; // msec for the cat to wake up and run
+    private static final long STALL = 1500; // msec
+
+    private Context context;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        if (Build.VERSION.SDK_INT >= 23 && !Settings.canDrawOverlays(context)) {
+            getInstrumentation().getUiAutomation().executeShellCommand(
+                    "appops set " + context.getPackageName() + " SYSTEM_ALERT_WINDOW allow")
+                    .close();
+        }
+        context.startService(new Intent(context, AnimationService.class)
+                .setAction(AnimationService.ACTION_START));
+        SystemClock.sleep(SETTLE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        context.startService(new Intent(context, AnimationService.class)
+                .setAction(AnimationService.ACTION_STOP));
+        getInstrumentation().waitForIdleSync();
+        super.tearDown();
+    }
+
+    public void testRenderThreadTicksThroughMainThreadStall() throws Exception {
+        final long[] stall = new long[2]; // msec of the wall clock
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                stall[0] = System.currentTimeMillis();
+                SystemClock.sleep(STALL);
+                stall[1] = System.currentTimeMillis();
+            }
+        });
+
+        // a second mapping of the file the service keeps writing
+        FlightRecorder recorder = new FlightRecorder(
+                AnimationService.getFlightRecorderFile(context),
+                AnimationService.FLIGHT_RECORDER_SIZE);
+        int ticks = 0;
+        long maxGap = 0;
+        long last = stall[0];
+        int firstX = 0, firstY = 0;
+        boolean moved = false;
+        for (int i = 0; i < recorder.size(); i++) {
+            long time = recorder.getWallTime(i);
+            if (time < stall[0] || time > stall[1]) {
+                continue;
+            }
+            if (ticks == 0) {
+                firstX = recorder.getX(i);
+                firstY = recorder.getY(i);
+            } else {
+                moved |= (recorder.getX(i) != firstX || recorder.getY(i) != firstY);
+            }
+            ticks++;
+            maxGap = Math.max(maxGap, time - last);
+            last = time;
+        }
+        maxGap = Math.max(maxGap, stall[1] - last);
+
+        int rate = Integer.valueOf(PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(AnimationService.PREF_KEY_PHYSICS_RATE,
+                        AnimationService.DEF_PHYSICS_RATE));
+        long stepInterval = 1000 / Math.max(rate, 1);
+        assertTrue("only " + ticks + " ticks during a " + STALL + " msec stall",
+                ticks >= STALL / stepInterval);
+        assertTrue("no tick for " + maxGap + " msec during the stall",
+                maxGap <= 2 * stepInterval);
+        assertTrue("the cat did not move during the stall", moved);
+    }
+}
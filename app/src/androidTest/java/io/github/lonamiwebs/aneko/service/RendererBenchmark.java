@@ -0,0 +1,124 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.Context;
+import android.os.Build;
+import android.provider.Settings;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+import io.github.lonamiwebs.aneko.MotionDrawable;
+import io.github.lonamiwebs.aneko.MotionParams;
+import io.github.lonamiwebs.aneko.R;
+
+/**
+ * Per frame cost of the two overlay backends, moving a few cats of the
+ * bundled skin around the screen: the time spent in moveTo, which the
+ * render thread pays on every tick (for the window backend, the
+ * updateViewLayout binder call), and the time until the main thread is
+ * idle again, which adds the canvas backend's drawing.
+ * <p>
+ * Run with {@code gradlew connectedAndroidTest} and read the medians from
+ * logcat under the ANekoBenchmark tag. The app needs to be allowed to draw
+ * overlays; on Android 6 and later the test grants itself that through
+ * appops.
+ */
+public class RendererBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "ANekoBenchmark";
+    private static final int CATS = 4;
+    private static final int WARMUP = 30;
+    private static final int FRAMES = 300;
+    private static final int STEP = 3; // px per frame
+
+    private Context context;
+    private MotionParams params;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        if (Build.VERSION.SDK_INT >= 23 && !Settings.canDrawOverlays(context)) {
+            getInstrumentation().getUiAutomation().executeShellCommand(
+                    "appops set " + context.getPackageName() + " SYSTEM_ALERT_WINDOW allow")
+                    .close();
+        }
+        params = new MotionParams(context, context.getResources(), R.xml.neko);
+        params.acquire();
+        params.load(params.getInitialState());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        params.release();
+        super.tearDown();
+    }
+
+    public void testWindowRenderer() {
+        run(OverlayRenderer.RENDERER_WINDOW);
+    }
+
+    public void testCanvasRenderer() {
+        run(OverlayRenderer.RENDERER_CANVAS);
+    }
+
+    private void run(String name) {
+        final OverlayRenderer renderer = OverlayRenderer.create(context, name);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                renderer.setSpriteCount(CATS);
+                for (int i = 0; i < CATS; i++) {
+                    MotionDrawable drawable =
+                            new MotionDrawable(params.getDrawable(params.getInitialState()));
+                    renderer.setDrawable(i, drawable);
+                    drawable.start();
+                }
+                renderer.attach();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+
+        long[] moveTimes = new long[FRAMES];
+        long[] frameTimes = new long[FRAMES];
+        for (int f = -WARMUP; f < FRAMES; f++) {
+            final int frame = f + WARMUP;
+            final long[] moveTime = new long[1];
+            long start = System.nanoTime();
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    long before = renderer.getMoveTime();
+                    for (int i = 0; i < CATS; i++) {
+                        // diagonals apart from each other, so every cat moves
+                        renderer.moveTo(i, 100 + i * 150 + frame * STEP % 600,
+                                100 + frame * STEP % 900);
+                    }
+                    moveTime[0] = renderer.getMoveTime() - before;
+                }
+            });
+            getInstrumentation().waitForIdleSync();
+            if (f >= 0) {
+                moveTimes[f] = moveTime[0];
+                frameTimes[f] = System.nanoTime() - start;
+            }
+        }
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                renderer.detach();
+            }
+        });
+        report(name, "move", moveTimes);
+        report(name, "frame until idle", frameTimes);
+    }
+
+    private static void report(String renderer, String what, long[] times) {
+        Arrays.sort(times);
+        Log.i(TAG, renderer + " renderer, " + CATS + " cats, " + what + ": median " +
+                times[times.length / 2] / 1000 + " usec, 90th " +
+                times[times.length * 9 / 10] / 1000 + " usec, max " +
+                times[times.length - 1] / 1000 + " usec");
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+
+import io.github.lonamiwebs.aneko.MotionDrawable;
+import io.github.lonamiwebs.aneko.MotionParams;
+import io.github.lonamiwebs.aneko.NekoSkin;
+import io.github.lonamiwebs.aneko.R;
+
+/**
+ * Time to first frame of the bundled skin on a cold start, from the XML
+ * and from the compiled copy in the disk cache: loading the params and
+ * the pages of the initial state, then drawing its first frame.
+ * <p>
+ * Run with {@code gradlew connectedAndroidTest} and read the medians from
+ * logcat under the ANekoBenchmark tag.
+ */
+public class SkinLoadBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "ANekoBenchmark";
+    private static final int WARMUP = 3;
+    private static final int RUNS = 20;
+
+    private Context context;
+    private Resources res;
+    private ComponentName skinComp;
+    private String key;
+    private MotionParamsDiskCache diskCache;
+    private Canvas canvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        res = context.getResources();
+        skinComp = new ComponentName(context, NekoSkin.class);
+        key = MotionParamsCache.getKey(context.getPackageManager(), skinComp);
+        diskCache = new MotionParamsDiskCache(new File(context.getCacheDir(), "benchmark"));
+        canvas = new Canvas(Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        diskCache.removePackage(context.getPackageName());
+        super.tearDown();
+    }
+
+    public void testFirstFrameFromXml() {
+        long[] times = new long[RUNS];
+        for (int i = -WARMUP; i < RUNS; i++) {
+            long start = System.nanoTime();
+            MotionParams params = new MotionParams(context, res, R.xml.neko);
+            drawFirstFrame(params);
+            long time = System.nanoTime() - start;
+            if (i >= 0) {
+                times[i] = time;
+            }
+        }
+        report("xml", times);
+    }
+
+    public void testFirstFrameFromCache() throws PackageManager.NameNotFoundException {
+        MotionParams compiled = new MotionParams(context, res, R.xml.neko);
+        diskCache.save(res, skinComp, key, compiled);
+        compiled.acquire();
+        compiled.release(); // lets go of its frames
+
+        long[] times = new long[RUNS];
+        for (int i = -WARMUP; i < RUNS; i++) {
+            long start = System.nanoTime();
+            MotionParams params = diskCache.load(res, skinComp, key);
+            assertNotNull("compiled skin was not read back", params);
+            drawFirstFrame(params);
+            long time = System.nanoTime() - start;
+            if (i >= 0) {
+                times[i] = time;
+            }
+        }
+        report("cache", times);
+    }
+
+    /**
+     * Draws what a new cat shows first, then drops the params so the next
+     * run decodes its atlas pages again.
+     */
+    private void drawFirstFrame(MotionParams params) {
+        params.acquire();
+        params.load(params.getInitialState());
+        MotionDrawable drawable = new MotionDrawable(params.getDrawable(params.getInitialState()));
+        drawable.setBounds(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        drawable.draw(canvas);
+        params.release();
+    }
+
+    private static void report(String path, long[] times) {
+        Arrays.sort(times);
+        Log.i(TAG, "time to first frame from " + path + ": median " +
+                times[times.length / 2] / 1000 + " usec, min " + times[0] / 1000 +
+                " usec, max " + times[times.length - 1] / 1000 + " usec");
+    }
+}
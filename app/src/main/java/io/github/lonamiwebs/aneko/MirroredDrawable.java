@@ -0,0 +1,116 @@
+package io.github.lonamiwebs.aneko;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws another drawable flipped horizontally, for mirrored frames that
+ * could not be packed into a {@link SpriteAtlas}.
+ */
+class MirroredDrawable extends Drawable implements Drawable.Callback {
+    private final Drawable drawable;
+
+    MirroredDrawable(Drawable drawable) {
+        this.drawable = drawable;
+        drawable.setCallback(this);
+    }
+
+    @Override
+    public Drawable.ConstantState getConstantState() {
+        Drawable.ConstantState state = drawable.getConstantState();
+        return (state != null ? new MirroredConstantState(state) : null);
+    }
+
+    @Override
+    public Drawable mutate() {
+        drawable.mutate();
+        return this;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return drawable.getIntrinsicWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return drawable.getIntrinsicHeight();
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        drawable.setBounds(bounds);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Rect bounds = getBounds();
+        int save = canvas.save();
+        canvas.scale(-1, 1, bounds.exactCenterX(), bounds.exactCenterY());
+        drawable.draw(canvas);
+        canvas.restoreToCount(save);
+    }
+
+    @Override
+    public int getOpacity() {
+        return drawable.getOpacity();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        drawable.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        drawable.setColorFilter(cf);
+    }
+
+    @Override
+    public void setDither(boolean dither) {
+        drawable.setDither(dither);
+    }
+
+    @Override
+    public void setFilterBitmap(boolean filter) {
+        drawable.setFilterBitmap(filter);
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+
+    /**
+     * Makes mirrored copies of new drawables of the same frame.
+     */
+    private static class MirroredConstantState extends ConstantState {
+        private final Drawable.ConstantState state;
+
+        private MirroredConstantState(Drawable.ConstantState state) {
+            this.state = state;
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return state.getChangingConfigurations();
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new MirroredDrawable(state.newDrawable());
+        }
+    }
+}
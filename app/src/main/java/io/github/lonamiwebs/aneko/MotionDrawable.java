@@ -6,12 +6,16 @@ import android.graphics.ColorFilter;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.drawable.Animatable;
-import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.SystemClock;
 
-import java.util.ArrayList;
-
+/**
+ * Plays a {@link Timeline} over a set of frames. The shown frame is looked
+ * up from the time since start, so only one wakeup is scheduled per
+ * visible frame change, and late wakeups never make the motion drift.
+ * Wakeups go through an {@link AnimationClock} when one is set, and
+ * through the drawable callback otherwise.
+ */
 public class MotionDrawable extends Drawable implements Animatable {
     public interface OnMotionEndListener {
         public void onMotionEnd(MotionDrawable drawable);
@@ -19,9 +23,10 @@ public class MotionDrawable extends Drawable implements Animatable {
 
     private MotionConstantState state;
 
-    private int curFrame = -1;
-    private int curRepeat = 0;
-    private int curDuration = -1;
+    private boolean running = false;
+    private long startTime = 0; // nsec
+    private AnimationClock clock;
+    private int curSegment = -1;
     private OnMotionEndListener onEnd;
 
     private int alpha = 0xff;
@@ -34,49 +39,69 @@ public class MotionDrawable extends Drawable implements Animatable {
             updateFrame();
         }
     };
+    private AnimationClock.Timer frameTimer = new AnimationClock.Timer(WakeupStats.CAUSE_FRAME) {
+        @Override
+        public void onTimer(long now) {
+            updateFrame();
+        }
+    };
     private Drawable.Callback childCallback = new ChildCallback();
-    private OnMotionEndListener childEnd = new ChildOnMotionEnd();
-
-    public MotionDrawable() {
-        state = new MotionConstantState();
-    }
-
-    public MotionDrawable(AnimationDrawable anim) {
-        this();
-
-        state.repeatCount = (anim.isOneShot() ? 1 : -1);
 
-        int nf = anim.getNumberOfFrames();
-        for (int i = 0; i < nf; i++) {
-            addFrame(anim.getFrame(i), anim.getDuration(i));
+    public MotionDrawable(Drawable[] frames, Timeline timeline) {
+        state = new MotionConstantState(frames, timeline);
+        for (Drawable frame : frames) {
+            frame.setCallback(childCallback);
         }
     }
 
-    public void setTotalDuration(int duration) {
-        state.totalDuration = duration;
+    /**
+     * Creates a drawable playing the timeline of another on its own. Frames
+     * are copied, sharing their bitmaps, so that the callback, visibility,
+     * alpha and bounds of each copy stay its own.
+     */
+    public MotionDrawable(MotionDrawable other) {
+        this(copyFrames(other.state.frames), other.state.timeline);
     }
 
-    public void setRepeatCount(int count) {
-        state.repeatCount = count;
+    private static Drawable[] copyFrames(Drawable[] frames) {
+        Drawable[] copies = new Drawable[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            Drawable.ConstantState frameState = frames[i].getConstantState();
+            if (frameState == null) {
+                throw new IllegalArgumentException("Frame cannot be copied: " + frames[i]);
+            }
+            copies[i] = frameState.newDrawable().mutate();
+        }
+        return copies;
     }
 
-    public void addFrame(Drawable drawable, int duration) {
-        if (drawable instanceof AnimationDrawable) {
-            MotionDrawable md = new MotionDrawable((AnimationDrawable) drawable);
-            md.setTotalDuration(duration);
-            drawable = md;
+    /**
+     * Schedules frame changes on the given clock, or through the drawable
+     * callback if null.
+     */
+    public void setClock(AnimationClock _clock) {
+        if (clock == _clock) {
+            return;
         }
 
-        if (drawable instanceof MotionDrawable) {
-            MotionDrawable md = (MotionDrawable) drawable;
-            md.setOnMotionEndListener(childEnd);
+        boolean wasRunning = isRunning();
+        stop();
+        clock = _clock;
+        if (wasRunning) {
+            start();
         }
-        drawable.setCallback(childCallback);
-        state.addFrame(drawable, duration);
+    }
+
+    public Timeline getTimeline() {
+        return state.timeline;
     }
 
     public Drawable getCurrentFrame() {
-        return state.getFrame(curFrame);
+        int segment = (curSegment < 0 ? 0 : curSegment);
+        if (segment >= state.timeline.getSegmentCount()) {
+            return null;
+        }
+        return state.frames[state.timeline.getFrame(segment)];
     }
 
     public void setOnMotionEndListener(OnMotionEndListener listener) {
@@ -91,12 +116,14 @@ public class MotionDrawable extends Drawable implements Animatable {
 
     @Override
     public int getIntrinsicWidth() {
-        return getCurrentFrame().getIntrinsicWidth();
+        Drawable current = getCurrentFrame();
+        return (current == null ? -1 : current.getIntrinsicWidth());
     }
 
     @Override
     public int getIntrinsicHeight() {
-        return getCurrentFrame().getIntrinsicHeight();
+        Drawable current = getCurrentFrame();
+        return (current == null ? -1 : current.getIntrinsicHeight());
     }
 
     @Override
@@ -199,15 +226,15 @@ public class MotionDrawable extends Drawable implements Animatable {
 
     @Override
     public boolean isRunning() {
-        return (curDuration >= 0);
+        return running;
     }
 
     @Override
     public void start() {
         if (!isRunning()) {
-            curFrame = -1;
-            curRepeat = 0;
-            curDuration = 0;
+            running = true;
+            startTime = now();
+            curSegment = -1;
             updateFrame();
         }
     }
@@ -215,112 +242,101 @@ public class MotionDrawable extends Drawable implements Animatable {
     @Override
     public void stop() {
         if (isRunning()) {
-            unscheduleSelf(frameUpdater);
-            curDuration = -1;
+            unscheduleFrame();
+            running = false;
         }
     }
 
-    private void updateFrame() {
-        int nf = state.getFrameCount();
-        int next = curFrame + 1;
-        int nextRepeat = curRepeat;
-        if (next >= nf) {
-            next = 0;
-            nextRepeat = curRepeat + 1;
-
-            if (state.repeatCount >= 0 && nextRepeat >= state.repeatCount) {
-                curDuration = -1;
-                invokeOnMotionEndListener();
-                return;
-            }
+    /**
+     * Jumps to the given msec since the start of the motion.
+     */
+    public void seekTo(long time) {
+        startTime = now() - time * 1000000;
+        if (isRunning()) {
+            unscheduleFrame();
+            updateFrame();
         }
+    }
 
-        if (state.totalDuration >= 0 && curDuration >= state.totalDuration) {
-            curDuration = -1;
-            invokeOnMotionEndListener();
-            return;
+    private void updateFrame() {
+        if (Tracing.ENABLED) {
+            Tracing.begin("MotionDrawable.updateFrame");
         }
+        long time = (now() - startTime) / 1000000;
+        int next = state.timeline.findSegment(time);
+        if (next < 0) {
+            running = false;
+            invokeOnMotionEndListener();
+        } else {
+            if (next != curSegment) {
+                showSegment(next);
+            }
 
-        {
-            Drawable current = getCurrentFrame();
-            if (current != null) {
-                current.setVisible(false, false);
+            long end = state.timeline.getSegmentEnd(time);
+            if (end >= 0) {
+                scheduleFrame(startTime + end * 1000000);
             }
         }
-
-        curFrame = next;
-        curRepeat = nextRepeat;
-
-        Drawable nextDrawable = state.getFrame(next);
-        nextDrawable.setVisible(isVisible(), true);
-        nextDrawable.setAlpha(alpha);
-        nextDrawable.setDither(dither);
-        nextDrawable.setColorFilter(colorFilter);
-        nextDrawable.setState(getState());
-        nextDrawable.setLevel(getLevel());
-        nextDrawable.setBounds(getBounds());
-
-        int duration = state.getFrameDuration(next);
-        int nextDuration =
-            (duration < 0 && state.totalDuration < 0 ? -1 :
-             duration < 0 ? state.totalDuration - curDuration :
-             state.totalDuration < 0 ? curDuration + duration :
-             Math.min(curDuration + duration,
-                      state.totalDuration));
-        if(nextDuration >= 0) {
-            duration = nextDuration - curDuration;
-            scheduleSelf(frameUpdater, SystemClock.uptimeMillis() + duration);
+        if (Tracing.ENABLED) {
+            Tracing.end();
         }
-
-        curDuration = (nextDuration >= 0 ? nextDuration : curDuration);
-        invalidateSelf();
     }
 
-    private static class MotionConstantState extends ConstantState {
-        private ArrayList<ItemInfo> drawables;
-        private int changingConfigurations = 0;
-        private int opacity;
-        private int totalDuration = 0;
-        private int repeatCount = 1;
+    private long now() {
+        return (clock != null ? clock.now() : SystemClock.uptimeMillis() * 1000000);
+    }
 
-        private MotionConstantState() {
-            drawables = new ArrayList<ItemInfo>();
+    private void scheduleFrame(long when) {
+        if (clock != null) {
+            clock.schedule(frameTimer, when);
+        } else {
+            scheduleSelf(frameUpdater, when / 1000000);
         }
+    }
 
-        private void addFrame(Drawable drawable, int duration) {
-            drawables.add(new ItemInfo(drawable, duration));
-            if (duration >= 0 && totalDuration >= 0) {
-                totalDuration += duration;
-            } else {
-                totalDuration = -1;
-            }
-
-            changingConfigurations |= drawable.getChangingConfigurations();
-            opacity = (drawables.size() > 1 ?
-                    Drawable.resolveOpacity(opacity, drawable.getOpacity()) :
-                    drawable.getOpacity());
+    private void unscheduleFrame() {
+        if (clock != null) {
+            clock.cancel(frameTimer);
+        } else {
+            unscheduleSelf(frameUpdater);
         }
+    }
 
-        private Drawable getFrame(int idx) {
-            idx = (idx < 0 ? 0 : idx);
-            if (drawables.size() <= idx) {
-                return null;
-            }
+    private void showSegment(int segment) {
+        Drawable current = getCurrentFrame();
+        curSegment = segment;
 
-            return drawables.get(idx).drawable;
+        Drawable next = getCurrentFrame();
+        if (current != null && current != next) {
+            current.setVisible(false, false);
         }
 
-        private int getFrameDuration(int idx) {
-            idx = (idx < 0 ? 0 : idx);
-            if (drawables.size() <= idx) {
-                return 0;
-            }
+        next.setVisible(isVisible(), true);
+        next.setAlpha(alpha);
+        next.setDither(dither);
+        next.setColorFilter(colorFilter);
+        next.setState(getState());
+        next.setLevel(getLevel());
+        next.setBounds(getBounds());
+        invalidateSelf();
+    }
 
-            return drawables.get(idx).duration;
-        }
+    private static class MotionConstantState extends ConstantState {
+        private final Drawable[] frames;
+        private final Timeline timeline;
+        private int changingConfigurations = 0;
+        private int opacity = PixelFormat.TRANSPARENT;
+
+        private MotionConstantState(Drawable[] frames, Timeline timeline) {
+            this.frames = frames;
+            this.timeline = timeline;
 
-        private int getFrameCount() {
-            return drawables.size();
+            for (int i = 0; i < frames.length; i++) {
+                changingConfigurations |= frames[i].getChangingConfigurations();
+                opacity = (i > 0 ?
+                        Drawable.resolveOpacity(opacity, frames[i].getOpacity()) :
+                        frames[i].getOpacity());
+            }
         }
 
         @Override
@@ -341,17 +357,7 @@ public class MotionDrawable extends Drawable implements Animatable {
         }
 
         private int getOpacity() {
-            return (drawables.size() > 1 ? opacity : PixelFormat.TRANSPARENT);
-        }
-    }
-
-    private static class ItemInfo {
-        private Drawable drawable;
-        private int duration;
-
-        private ItemInfo(Drawable drawable, int duration) {
-            this.drawable = drawable;
-            this.duration = duration;
+            return (timeline.getSegmentCount() > 1 ? opacity : PixelFormat.TRANSPARENT);
         }
     }
 
@@ -377,13 +383,4 @@ public class MotionDrawable extends Drawable implements Animatable {
             }
         }
     }
-
-    private class ChildOnMotionEnd implements OnMotionEndListener {
-        @Override
-        public void onMotionEnd(MotionDrawable drawable) {
-            if (drawable == getCurrentFrame()) {
-                updateFrame();
-            }
-        }
-    }
 }
@@ -2,23 +2,32 @@ package io.github.lonamiwebs.aneko;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.Xml;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
-
-public class MotionParams {
-    public enum MoveDirection {
-        UP, DOWN, LEFT, RIGHT, UP_LEFT, UP_RIGHT, DOWN_LEFT, DOWN_RIGHT
-    }
-
-    public enum WallDirection {
-        UP, DOWN, LEFT, RIGHT
-    }
+import java.util.LinkedHashMap;
+
+/**
+ * The {@link MotionGraph} of a skin, loaded from its XML, along with the
+ * drawables of every state.
+ */
+public class MotionParams implements MotionGraph {
+    /**
+     * Version of the layout written by {@link #writeTo}; bump on any change.
+     */
+    public static final int COMPILED_VERSION = 3;
 
     private static final String TAG_MOTION_PARAMS = "motion-params";
     private static final String TAG_MOTION = "motion";
@@ -44,6 +53,7 @@ public class MotionParams {
     private static final String ATTR_ITEM_DRAWABLE = "drawable";
     private static final String ATTR_ITEM_DURATION = "duration";
     private static final String ATTR_ITEM_REPEAT_COUNT = "repeatCount";
+    private static final String ATTR_ITEM_MIRROR = "mirror";
 
     private static final int DEF_ACCELERATION = 160; // dp per sec^2
     private static final int DEF_MAX_VELOCITY = 100; // dp per sec
@@ -55,36 +65,96 @@ public class MotionParams {
     private static final String DEF_MOVE_STATE_PREFIX = "move";
     private static final String DEF_WALL_STATE_PREFIX = "wall";
 
+    // frame program opcodes, see Motion.program
+    private static final int OP_ITEM = 0; // resid, duration
+    private static final int OP_MIRROR_ITEM = 3; // resid, duration; flipped horizontally
+    private static final int OP_REPEAT = 1; // duration, repeatCount, ..., OP_END
+    private static final int OP_END = 2;
+
     private float acceleration;
     private float maxVelocity;
     private float deaccelerationDistance;
     private float proximityDistance;
 
-    private String initialState;
-    private String awakeState;
+    private String initialStateName;
+    private String awakeStateName;
     private String moveStatePrefix;
     private String wallStatePrefix;
 
-    private HashMap<String, Motion> motions = new HashMap<String, Motion>();
+    // states are compiled into dense ids once the whole skin is parsed
+    private int initialState;
+    private int awakeState;
+    private int[] moveStates = new int[MoveDirection.values().length];
+    private int[] wallStates = new int[WallDirection.values().length];
+
+    private ArrayList<Motion> parsedMotions = new ArrayList<Motion>();
+    private Motion[] motions;
+
+    // distinct frames of the skin, in order of first use
+    private int[] frameIds;
+    private int[] frameWidths;
+    private int[] frameHeights;
+    private SpriteAtlas atlas;
+    private int[] atlasFrames; // index of each frame in the atlas
+    private int[] frameUses; // number of items showing each frame
+    private int refCount = 0;
+    private long byteCount = 0;
 
     private static class Motion {
         private String name;
-        private String nextState;
+        private String nextStateName;
+        private int nextState = STATE_NONE;
 
         private boolean checkMove;
         private boolean checkWall;
 
+        private int duration;
+        // flattened item tree: OP_ITEM and OP_REPEAT ... OP_END entries
+        private int[] program;
+        // atlas indices of every frame the motion shows
+        private int[] frames;
+
         private MotionDrawable items;
     }
 
     public MotionParams(Context context, Resources res, int resid) {
+        if (Tracing.ENABLED) {
+            Tracing.begin("MotionParams.parse");
+        }
         XmlPullParser xml = res.getXml(resid);
         AttributeSet attrs = Xml.asAttributeSet(xml);
         try {
             parseXml(res, xml, attrs);
+            compileStates();
+            compileFrames();
+            buildDrawables(res);
         } catch (Exception e) {
             throw new IllegalArgumentException(
                     "Load failed: " + res.getResourceName(resid), e);
+        } finally {
+            if (Tracing.ENABLED) {
+                Tracing.end();
+            }
+        }
+    }
+
+    /**
+     * Loads params previously stored with {@link #writeTo}, without
+     * going through the skin XML again.
+     */
+    public MotionParams(Resources res, ByteBuffer in) {
+        if (Tracing.ENABLED) {
+            Tracing.begin("MotionParams.read");
+        }
+        try {
+            readFrom(in);
+            buildDrawables(res);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Load failed: compiled skin", e);
+        } finally {
+            if (Tracing.ENABLED) {
+                Tracing.end();
+            }
         }
     }
 
@@ -104,24 +174,40 @@ public class MotionParams {
         return proximityDistance;
     }
 
-    public boolean hasState(String state) {
-        return motions.containsKey(state);
+    /**
+     * @return approximate memory used by the frames: those decoded at
+     * load, plus the atlas regions this skin keeps pages alive for
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public boolean hasState(int state) {
+        return state >= 0 && state < motions.length;
+    }
+
+    public int getStateCount() {
+        return motions.length;
+    }
+
+    public String getStateName(int state) {
+        return (hasState(state) ? motions[state].name : null);
     }
 
-    public String getInitialState() {
+    public int getInitialState() {
         return initialState;
     }
 
-    public String getAwakeState() {
+    public int getAwakeState() {
         return awakeState;
     }
 
-    public String getMoveState(MoveDirection dir) {
-        return moveStatePrefix + enumToString(dir);
+    public int getMoveState(MoveDirection dir) {
+        return moveStates[dir.ordinal()];
     }
 
-    public String getWallState(WallDirection dir) {
-        return wallStatePrefix + enumToString(dir);
+    public int getWallState(WallDirection dir) {
+        return wallStates[dir.ordinal()];
     }
 
     private static String enumToString(final WallDirection dir) {
@@ -162,24 +248,431 @@ public class MotionParams {
         }
     }
 
-    public String getNextState(String state) {
-        Motion motion = motions.get(state);
-        return (motion != null ? motion.nextState : null);
+    public int getNextState(int state) {
+        return (hasState(state) ? motions[state].nextState : STATE_NONE);
+    }
+
+    public boolean needCheckMove(int state) {
+        return (hasState(state) ? motions[state].checkMove : false);
+    }
+
+    public boolean needCheckWall(int state) {
+        return (hasState(state) ? motions[state].checkWall : false);
+    }
+
+    @Override
+    public Timeline getTimeline(int state) {
+        return (hasState(state) ? motions[state].items.getTimeline() : null);
+    }
+
+    @Override
+    public int getSpriteWidth(int state) {
+        return (hasState(state) ? motions[state].items.getIntrinsicWidth() : -1);
+    }
+
+    @Override
+    public int getSpriteHeight(int state) {
+        return (hasState(state) ? motions[state].items.getIntrinsicHeight() : -1);
+    }
+
+    /**
+     * @return the drawable of the given state, shared by every user of these
+     * params; copy it with {@link MotionDrawable#MotionDrawable(MotionDrawable)}
+     * to play it independently
+     */
+    public MotionDrawable getDrawable(int state) {
+        return (hasState(state) ? motions[state].items : null);
+    }
+
+    /**
+     * Assigns every parsed motion a dense id and resolves all the state
+     * references, so that no state name has to be looked up after loading.
+     * The references are checked by {@link MotionGraph.Builder}, the same
+     * as for graphs built in code.
+     */
+    private void compileStates() {
+        motions = parsedMotions.toArray(new Motion[parsedMotions.size()]);
+        parsedMotions = null;
+
+        MotionGraph.Builder builder = new MotionGraph.Builder()
+                .setInitialState(initialStateName)
+                .setAwakeState(awakeStateName);
+        for (MoveDirection dir : MoveDirection.values()) {
+            builder.setMoveState(dir, moveStatePrefix + enumToString(dir));
+        }
+        for (WallDirection dir : WallDirection.values()) {
+            builder.setWallState(dir, wallStatePrefix + enumToString(dir));
+        }
+        for (Motion motion : motions) {
+            // frames are not compiled yet, and only the references matter here
+            builder.addState(motion.name, null, motion.nextStateName,
+                    motion.checkMove, motion.checkWall, 0, 0);
+        }
+        MotionGraph graph = builder.build();
+
+        for (int i = 0; i < motions.length; i++) {
+            motions[i].nextState = graph.getNextState(i);
+        }
+        initialState = graph.getInitialState();
+        awakeState = graph.getAwakeState();
+        for (MoveDirection dir : MoveDirection.values()) {
+            moveStates[dir.ordinal()] = graph.getMoveState(dir);
+        }
+        for (WallDirection dir : WallDirection.values()) {
+            wallStates[dir.ordinal()] = graph.getWallState(dir);
+        }
+    }
+
+    private void compileFrames() {
+        LinkedHashMap<Integer, Integer> ids = new LinkedHashMap<Integer, Integer>();
+        for (Motion motion : motions) {
+            int[] program = motion.program;
+            for (int pc = 0; pc < program.length; ) {
+                switch (program[pc]) {
+                    case OP_ITEM:
+                    case OP_MIRROR_ITEM:
+                        if (!ids.containsKey(program[pc + 1])) {
+                            ids.put(program[pc + 1], ids.size());
+                        }
+                        pc += 3;
+                        break;
+                    case OP_REPEAT:
+                        pc += 3;
+                        break;
+                    default:
+                        pc += 1;
+                        break;
+                }
+            }
+        }
+
+        frameIds = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids.keySet()) {
+            frameIds[i++] = id;
+        }
+    }
+
+    private void buildDrawables(Resources res) {
+        if (frameWidths == null) {
+            int[][] sizes = SpriteAtlas.measureFrames(res, frameIds);
+            frameWidths = sizes[0];
+            frameHeights = sizes[1];
+        }
+
+        HashMap<Integer, Integer> frameIndices = new HashMap<Integer, Integer>();
+        for (int i = 0; i < frameIds.length; i++) {
+            frameIndices.put(frameIds[i], i);
+        }
+
+        frameUses = new int[frameIds.length];
+        for (Motion motion : motions) {
+            int[] program = motion.program;
+            for (int pc = 0; pc < program.length; ) {
+                switch (program[pc]) {
+                    case OP_ITEM:
+                    case OP_MIRROR_ITEM:
+                        frameUses[frameIndices.get(program[pc + 1])]++;
+                        pc += 3;
+                        break;
+                    case OP_REPEAT:
+                        pc += 3;
+                        break;
+                    default:
+                        pc += 1;
+                        break;
+                }
+            }
+        }
+
+        String packageName = (frameIds.length > 0 ?
+                res.getResourcePackageName(frameIds[0]) : "");
+        atlas = SpriteAtlas.obtain(res, packageName);
+        atlasFrames = atlas.acquireFrames(frameIds, frameWidths, frameHeights, frameUses);
+
+        // the pages holding these regions stay allocated while referenced
+        byteCount = 0;
+        for (int i = 0; i < frameIds.length; i++) {
+            if (frameWidths[i] > 0 && frameHeights[i] > 0) {
+                byteCount += 4L * frameWidths[i] * frameHeights[i];
+            }
+        }
+        ArrayList<Integer> used = new ArrayList<Integer>();
+        ArrayList<Drawable> drawables = new ArrayList<Drawable>();
+        HashMap<Integer, Integer> localIndices = new HashMap<Integer, Integer>();
+        for (Motion motion : motions) {
+            used.clear();
+            drawables.clear();
+            localIndices.clear();
+            Timeline.Builder timeline = new Timeline.Builder();
+            buildFrames(res, timeline, motion.program, 0, frameIndices,
+                    used, drawables, localIndices);
+            motion.items = new MotionDrawable(
+                    drawables.toArray(new Drawable[drawables.size()]),
+                    timeline.build(motion.duration));
+
+            motion.frames = new int[used.size()];
+            for (int i = 0; i < motion.frames.length; i++) {
+                motion.frames[i] = used.get(i);
+            }
+        }
+    }
+
+    private int buildFrames(Resources res, Timeline.Builder timeline, int[] program, int pc,
+                            HashMap<Integer, Integer> frameIndices, ArrayList<Integer> used,
+                            ArrayList<Drawable> drawables,
+                            HashMap<Integer, Integer> localIndices) {
+        while (pc < program.length) {
+            switch (program[pc]) {
+                case OP_ITEM:
+                case OP_MIRROR_ITEM: {
+                    boolean mirror = (program[pc] == OP_MIRROR_ITEM);
+                    int frameIndex = atlasFrames[frameIndices.get(program[pc + 1])];
+                    int duration = program[pc + 2];
+                    if (!used.contains(frameIndex)) {
+                        used.add(frameIndex);
+                    }
+
+                    // one drawable per distinct frame, however often it shows
+                    int key = frameIndex * 2 + (mirror ? 1 : 0);
+                    Integer local = localIndices.get(key);
+                    if (local != null) {
+                        timeline.addFrame(local, duration);
+                        pc += 3;
+                        break;
+                    }
+
+                    Drawable frame = atlas.newDrawable(frameIndex, mirror);
+                    boolean packed = (frame != null);
+                    if (!packed) {
+                        frame = res.getDrawable(program[pc + 1]);
+                        byteCount += getByteCount(frame);
+                    }
+                    if (frame instanceof AnimationDrawable) {
+                        // flatten the animation into the motion itself
+                        AnimationDrawable anim = (AnimationDrawable) frame;
+                        timeline.beginRepeat();
+                        for (int i = 0; i < anim.getNumberOfFrames(); i++) {
+                            Drawable animFrame = anim.getFrame(i);
+                            timeline.addFrame(drawables.size(), anim.getDuration(i));
+                            drawables.add(mirror ? new MirroredDrawable(animFrame) : animFrame);
+                        }
+                        timeline.endRepeat(anim.isOneShot() ? 1 : -1, duration);
+                    } else {
+                        if (mirror && !packed) {
+                            frame = new MirroredDrawable(frame);
+                        }
+                        localIndices.put(key, drawables.size());
+                        timeline.addFrame(drawables.size(), duration);
+                        drawables.add(frame);
+                    }
+                    pc += 3;
+                    break;
+                }
+                case OP_REPEAT: {
+                    int duration = program[pc + 1];
+                    int repeat = program[pc + 2];
+                    timeline.beginRepeat();
+                    pc = buildFrames(res, timeline, program, pc + 3, frameIndices,
+                            used, drawables, localIndices);
+                    timeline.endRepeat(repeat, duration);
+                    break;
+                }
+                case OP_END:
+                    return pc + 1;
+                default:
+                    throw new IllegalArgumentException("bad frame program");
+            }
+        }
+        return pc;
+    }
+
+    /**
+     * Registers a user of these params. Frames stay loaded until every
+     * user has called {@link #release}.
+     */
+    public void acquire() {
+        refCount++;
+    }
+
+    public void release() {
+        if (--refCount == 0) {
+            atlas.releaseFrames(atlasFrames, frameUses);
+        }
+    }
+
+    /**
+     * Decodes the frames of the given state, so drawing it never has to.
+     */
+    public void load(int state) {
+        if (hasState(state)) {
+            atlas.loadFrames(motions[state].frames);
+        }
+    }
+
+    /**
+     * Decodes the frames of the motions likely to follow the given state,
+     * so switching to them does not stall on decoding.
+     */
+    public void prefetch(int state) {
+        if (!hasState(state)) {
+            return;
+        }
+
+        Motion motion = motions[state];
+        if (hasState(motion.nextState)) {
+            atlas.loadFrames(motions[motion.nextState].frames);
+        }
+        if (motion.checkMove || state == awakeState || isMoveState(state)) {
+            for (int move : moveStates) {
+                if (hasState(move)) {
+                    atlas.loadFrames(motions[move].frames);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases every decoded frame except those of the given state.
+     */
+    public void trimMemory(int keepState) {
+        trimMemory(new MotionParams[]{this}, new int[]{keepState});
+    }
+
+    /**
+     * Releases every decoded frame except those of the given states, each
+     * within the params at the same index.
+     */
+    public static void trimMemory(MotionParams[] params, int[] keepStates) {
+        SpriteAtlas[] atlases = new SpriteAtlas[params.length];
+        int[][] frames = new int[params.length][];
+        for (int i = 0; i < params.length; i++) {
+            atlases[i] = params[i].atlas;
+            frames[i] = (params[i].hasState(keepStates[i]) ?
+                    params[i].motions[keepStates[i]].frames : new int[0]);
+        }
+        SpriteAtlas.trimMemory(atlases, frames);
+    }
+
+    private boolean isMoveState(int state) {
+        for (int move : moveStates) {
+            if (move == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the compiled state machine, frame programs and frame sizes in
+     * the layout read back by {@link #MotionParams(Resources, ByteBuffer)}.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeFloat(acceleration);
+        out.writeFloat(maxVelocity);
+        out.writeFloat(deaccelerationDistance);
+        out.writeFloat(proximityDistance);
+
+        out.writeInt(initialState);
+        out.writeInt(awakeState);
+        writeInts(out, moveStates);
+        writeInts(out, wallStates);
+
+        out.writeInt(motions.length);
+        for (Motion motion : motions) {
+            byte[] name = motion.name.getBytes("UTF-8");
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeInt(motion.nextState);
+            out.writeBoolean(motion.checkMove);
+            out.writeBoolean(motion.checkWall);
+            out.writeInt(motion.duration);
+            writeInts(out, motion.program);
+        }
+
+        writeInts(out, frameIds);
+        writeInts(out, frameWidths);
+        writeInts(out, frameHeights);
+    }
+
+    private void readFrom(ByteBuffer in) throws IOException {
+        acceleration = in.getFloat();
+        maxVelocity = in.getFloat();
+        deaccelerationDistance = in.getFloat();
+        proximityDistance = in.getFloat();
+
+        initialState = in.getInt();
+        awakeState = in.getInt();
+        moveStates = readInts(in);
+        wallStates = readInts(in);
+
+        motions = new Motion[readLength(in, 1)];
+        for (int i = 0; i < motions.length; i++) {
+            Motion motion = new Motion();
+            byte[] name = new byte[readLength(in, 1)];
+            in.get(name);
+            motion.name = new String(name, "UTF-8");
+            motion.nextState = in.getInt();
+            motion.checkMove = in.get() != 0;
+            motion.checkWall = in.get() != 0;
+            motion.duration = in.getInt();
+            motion.program = readInts(in);
+            motions[i] = motion;
+        }
+
+        frameIds = readInts(in);
+        frameWidths = readInts(in);
+        frameHeights = readInts(in);
+
+        boolean valid = hasState(initialState) && isStateRef(awakeState) &&
+                moveStates.length == MoveDirection.values().length &&
+                wallStates.length == WallDirection.values().length &&
+                frameWidths.length == frameIds.length &&
+                frameHeights.length == frameIds.length;
+        for (int state : moveStates) {
+            valid &= isStateRef(state);
+        }
+        for (int state : wallStates) {
+            valid &= isStateRef(state);
+        }
+        for (Motion motion : motions) {
+            valid &= isStateRef(motion.nextState);
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("corrupt compiled skin");
+        }
+    }
+
+    private boolean isStateRef(int state) {
+        return state == STATE_NONE || hasState(state);
     }
 
-    public boolean needCheckMove(String state) {
-        Motion motion = motions.get(state);
-        return (motion != null ? motion.checkMove : false);
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
     }
 
-    public boolean needCheckWall(String state) {
-        Motion motion = motions.get(state);
-        return (motion != null ? motion.checkWall : false);
+    private static int[] readInts(ByteBuffer in) {
+        int[] values = new int[readLength(in, 4)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * 4);
+        return values;
     }
 
-    public MotionDrawable getDrawable(String state) {
-        Motion motion = motions.get(state);
-        return (motion != null ? motion.items : null);
+    /**
+     * Reads the length of an array, checking that the rest of the buffer
+     * can hold it, so a truncated file cannot make it allocate gigabytes.
+     * @param elementSize bytes taken by each element, at least
+     */
+    private static int readLength(ByteBuffer in, int elementSize) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / elementSize) {
+            throw new IllegalArgumentException("bad array length: " + length +
+                    ", " + in.remaining() + " bytes left");
+        }
+        return length;
     }
 
     private void parseXml(Resources res, XmlPullParser xml, AttributeSet attrs)
@@ -220,11 +713,11 @@ public class MotionParams {
         proximityDistance = density * attrs.getAttributeIntValue(
                 null, ATTR_PROXIMITY, DEF_PROXIMITY_DISTANCE);
 
-        initialState = attrs.getAttributeValue(null, ATTR_INITIAL_STATE);
-        initialState = (initialState != null ? initialState : DEF_INITIAL_STATE);
+        initialStateName = attrs.getAttributeValue(null, ATTR_INITIAL_STATE);
+        initialStateName = (initialStateName != null ? initialStateName : DEF_INITIAL_STATE);
 
-        awakeState = attrs.getAttributeValue(null, ATTR_AWAKE_STATE);
-        awakeState = (awakeState != null ? awakeState : DEF_AWAKE_STATE);
+        awakeStateName = attrs.getAttributeValue(null, ATTR_AWAKE_STATE);
+        awakeStateName = (awakeStateName != null ? awakeStateName : DEF_AWAKE_STATE);
 
         moveStatePrefix = attrs.getAttributeValue(null, ATTR_MOVE_STATE_PREFIX);
         moveStatePrefix = (moveStatePrefix != null ? moveStatePrefix : DEF_MOVE_STATE_PREFIX);
@@ -245,14 +738,14 @@ public class MotionParams {
 
             String name = xml.getName();
             if (TAG_MOTION.equals(name)) {
-                parseMotion(res, xml, attrs);
+                parseMotion(xml, attrs);
             } else {
                 throw new IllegalArgumentException("unknown tag: " + name);
             }
         }
     }
 
-    private void parseMotion(Resources res, XmlPullParser xml, AttributeSet attrs)
+    private void parseMotion(XmlPullParser xml, AttributeSet attrs)
             throws XmlPullParserException, IOException {
         Motion motion = new Motion();
 
@@ -262,12 +755,12 @@ public class MotionParams {
                     "state is not specified: " + attrs.getPositionDescription());
         }
 
-        int duration = attrs.getAttributeIntValue(null, ATTR_DURATION, -1);
-        motion.nextState = attrs.getAttributeValue(null, ATTR_NEXT_STATE);
+        motion.duration = attrs.getAttributeIntValue(null, ATTR_DURATION, -1);
+        motion.nextStateName = attrs.getAttributeValue(null, ATTR_NEXT_STATE);
         motion.checkMove = attrs.getAttributeBooleanValue(null, ATTR_CHECK_MOVE, false);
         motion.checkWall = attrs.getAttributeBooleanValue(null, ATTR_CHECK_WALL, false);
 
-        motion.items = new MotionDrawable();
+        ArrayList<Integer> program = new ArrayList<Integer>();
 
         int depth = xml.getDepth();
         while (true) {
@@ -282,35 +775,54 @@ public class MotionParams {
 
             String name = xml.getName();
             if (TAG_ITEM.equals(name)) {
-                parseItem(res, motion.items, xml, attrs);
+                parseItem(program, xml, attrs);
             } else if (TAG_REPEAT_ITEM.equals(name)) {
-                parseRepeatItem(res, motion.items, xml, attrs);
+                parseRepeatItem(program, xml, attrs);
             } else {
                 throw new IllegalArgumentException("unknown tag: " + name);
             }
         }
 
-        motion.items.setTotalDuration(duration);
-        motion.items.setRepeatCount(1);
+        motion.program = new int[program.size()];
+        for (int i = 0; i < motion.program.length; i++) {
+            motion.program[i] = program.get(i);
+        }
 
-        motions.put(motion.name, motion);
+        parsedMotions.add(motion);
     }
 
-    private void parseItem(Resources res, MotionDrawable items,
+    private void parseItem(ArrayList<Integer> program,
                            XmlPullParser xml, AttributeSet attrs)
             throws XmlPullParserException, IOException {
         int drawable = attrs.getAttributeResourceValue(null, ATTR_ITEM_DRAWABLE, 0);
         int duration = attrs.getAttributeIntValue(null, ATTR_ITEM_DURATION, -1);
+        boolean mirror = attrs.getAttributeBooleanValue(null, ATTR_ITEM_MIRROR, false);
 
-        items.addFrame(res.getDrawable(drawable), duration);
+        program.add(mirror ? OP_MIRROR_ITEM : OP_ITEM);
+        program.add(drawable);
+        program.add(duration);
     }
 
-    private void parseRepeatItem(Resources res, MotionDrawable items,
+    private static long getByteCount(Drawable frame) {
+        if (frame instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) frame).getBitmap();
+            if (bitmap != null) {
+                return (long) bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        }
+        return 4L * Math.max(frame.getIntrinsicWidth(), 0) *
+                Math.max(frame.getIntrinsicHeight(), 0);
+    }
+
+    private void parseRepeatItem(ArrayList<Integer> program,
                                  XmlPullParser xml, AttributeSet attrs)
             throws XmlPullParserException, IOException {
         int duration = attrs.getAttributeIntValue(null, ATTR_ITEM_DURATION, -1);
         int repeat = attrs.getAttributeIntValue(null, ATTR_ITEM_REPEAT_COUNT, -1);
-        MotionDrawable dr = new MotionDrawable();
+
+        program.add(OP_REPEAT);
+        program.add(duration);
+        program.add(repeat);
 
         int depth = xml.getDepth();
         while (true) {
@@ -325,16 +837,14 @@ public class MotionParams {
 
             String name = xml.getName();
             if (TAG_ITEM.equals(name)) {
-                parseItem(res, dr, xml, attrs);
+                parseItem(program, xml, attrs);
             } else if (TAG_REPEAT_ITEM.equals(name)) {
-                parseRepeatItem(res, dr, xml, attrs);
+                parseRepeatItem(program, xml, attrs);
             } else {
                 throw new IllegalArgumentException("unknown tag: " + name);
             }
         }
 
-        dr.setTotalDuration(duration);
-        dr.setRepeatCount(repeat);
-        items.addFrame(dr, -1);
+        program.add(OP_END);
     }
 }
@@ -77,7 +77,13 @@ public class SkinPreference extends DialogPreference {
     protected void onPrepareDialogBuilder(AlertDialog.Builder builder) {
         super.onPrepareDialogBuilder(builder);
 
+        if (Tracing.ENABLED) {
+            Tracing.begin("SkinPreference.createListData");
+        }
         data = createListData();
+        if (Tracing.ENABLED) {
+            Tracing.end();
+        }
         clickedIndex = -1;
 
         SimpleAdapter adapter = new SimpleAdapter(
@@ -0,0 +1,394 @@
+package io.github.lonamiwebs.aneko;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Packs the bitmap frames of a skin package into a few large bitmaps, so
+ * a skin costs a handful of bitmaps instead of one per frame.
+ * <p>
+ * There is a single atlas per package and display density, and frames are
+ * reference counted: every motion, every reload of a skin and every cat
+ * using the same frame share one copy of its pixels, which is released
+ * when its last user goes away.
+ * <p>
+ * Only the layout is computed up front. The pixels of a page are decoded
+ * when a motion showing one of its frames is loaded, not while drawing,
+ * and decoded pages of every atlas share a single least recently used
+ * pool bounded in bytes. Slots of released frames and pages are reused.
+ */
+public class SpriteAtlas {
+    private static final int MAX_PAGE_SIZE = 256; // px
+    private static final int PADDING = 1; // px between frames
+
+    private static final HashMap<String, SpriteAtlas> atlases =
+            new HashMap<String, SpriteAtlas>();
+
+    private static final LinkedHashMap<Page, Page> decodedPages =
+            new LinkedHashMap<Page, Page>(8, 0.75f, true);
+    private static long maxDecodedBytes = Runtime.getRuntime().maxMemory() / 8;
+    private static long decodedBytes = 0;
+
+    private final String key;
+    private final Resources res;
+    private final HashMap<Integer, Integer> frameIndices = new HashMap<Integer, Integer>();
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+    private final ArrayList<Page> pages = new ArrayList<Page>();
+    private final ArrayList<Integer> freeFrames = new ArrayList<Integer>(); // released slots
+    private final ArrayList<Integer> freePages = new ArrayList<Integer>();
+    private int refCount = 0;
+
+    private static class Frame {
+        private int resid;
+        private int page = -1;
+        private Rect rect;
+        private int refCount;
+        private int uses; // items showing the frame, for the memory report
+    }
+
+    private static class Page {
+        private SpriteAtlas atlas;
+        private int width;
+        private int height;
+        private Bitmap bitmap;
+        private int refCount;
+
+        private long getByteCount() {
+            return 4L * width * height;
+        }
+    }
+
+    private SpriteAtlas(String key, Resources res) {
+        this.key = key;
+        this.res = res;
+    }
+
+    /**
+     * @return the atlas shared by every skin of the package at the current
+     * display density
+     */
+    public static SpriteAtlas obtain(Resources res, String packageName) {
+        String key = packageName + ':' + res.getDisplayMetrics().densityDpi;
+        SpriteAtlas atlas = atlases.get(key);
+        if (atlas == null) {
+            atlas = new SpriteAtlas(key, res);
+            atlases.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * Stops handing out the atlases of an updated package; their current
+     * users keep them until they release their frames.
+     */
+    public static void invalidatePackage(String packageName) {
+        Iterator<SpriteAtlas> it = atlases.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().key.startsWith(packageName + ':')) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Measures frames without decoding their pixels.
+     * @return the sizes as {widths, heights}, -1 for non-bitmap frames
+     */
+    public static int[][] measureFrames(Resources res, int[] frameIds) {
+        int[][] sizes = new int[2][frameIds.length];
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        for (int i = 0; i < frameIds.length; i++) {
+            opts.outWidth = opts.outHeight = -1;
+            BitmapFactory.decodeResource(res, frameIds[i], opts);
+            sizes[0][i] = opts.outWidth;
+            sizes[1][i] = opts.outHeight;
+        }
+        return sizes;
+    }
+
+    /**
+     * Adds a reference to each of the given frames, packing those that
+     * are not in the atlas yet into new pages. Frames with a negative size
+     * (e.g. XML drawables) get an index but are never packed.
+     * @param uses how many items show each frame
+     * @return the index of each frame in this atlas
+     */
+    public int[] acquireFrames(int[] frameIds, int[] frameWidths, int[] frameHeights,
+                               int[] uses) {
+        int[] indices = new int[frameIds.length];
+
+        // shelf packing in order of first use, so frames shown together
+        // tend to share a page
+        Page page = null;
+        int pageIndex = -1;
+        int x = 0, y = 0, shelfHeight = 0;
+        for (int i = 0; i < frameIds.length; i++) {
+            Integer index = frameIndices.get(frameIds[i]);
+            if (index == null) {
+                Frame frame = new Frame();
+                frame.resid = frameIds[i];
+                if (frameWidths[i] >= 0 && frameHeights[i] >= 0) {
+                    int w = frameWidths[i] + PADDING;
+                    int h = frameHeights[i] + PADDING;
+                    if (page != null && x > 0 && x + w > MAX_PAGE_SIZE) {
+                        x = 0;
+                        y += shelfHeight;
+                        shelfHeight = 0;
+                    }
+                    if (page == null || (y > 0 && y + h > MAX_PAGE_SIZE)) {
+                        page = new Page();
+                        page.atlas = this;
+                        pageIndex = addSlot(pages, freePages, page);
+                        x = y = shelfHeight = 0;
+                    }
+
+                    frame.page = pageIndex;
+                    frame.rect = new Rect(x, y, x + frameWidths[i], y + frameHeights[i]);
+                    x += w;
+                    shelfHeight = Math.max(shelfHeight, h);
+                    page.width = Math.max(page.width, x);
+                    page.height = Math.max(page.height, y + shelfHeight);
+                }
+
+                index = addSlot(frames, freeFrames, frame);
+                frameIndices.put(frameIds[i], index);
+            }
+
+            Frame frame = frames.get(index);
+            if (frame.refCount++ == 0 && frame.page >= 0) {
+                pages.get(frame.page).refCount++;
+            }
+            frame.uses += uses[i];
+            indices[i] = index;
+        }
+
+        refCount++;
+        return indices;
+    }
+
+    /**
+     * Drops the references taken by {@link #acquireFrames}, freeing the
+     * pages nobody uses anymore.
+     */
+    public void releaseFrames(int[] indices, int[] uses) {
+        for (int i = 0; i < indices.length; i++) {
+            Frame frame = frames.get(indices[i]);
+            frame.uses -= uses[i];
+            if (--frame.refCount > 0) {
+                continue;
+            }
+
+            frameIndices.remove(frame.resid);
+            frames.set(indices[i], null);
+            freeFrames.add(indices[i]);
+            if (frame.page >= 0) {
+                Page page = pages.get(frame.page);
+                if (--page.refCount == 0) {
+                    dropPage(page);
+                    pages.set(frame.page, null);
+                    freePages.add(frame.page);
+                }
+            }
+        }
+
+        if (--refCount == 0 && atlases.get(key) == this) {
+            atlases.remove(key);
+        }
+    }
+
+    /**
+     * Puts an item in a released slot if there is one, so skins that come
+     * and go do not grow the atlas.
+     * @return the index of the item
+     */
+    private static <T> int addSlot(ArrayList<T> items, ArrayList<Integer> free, T item) {
+        if (free.isEmpty()) {
+            items.add(item);
+            return items.size() - 1;
+        }
+        int index = free.remove(free.size() - 1);
+        items.set(index, item);
+        return index;
+    }
+
+    /**
+     * Bounds the bytes of decoded pages kept by all atlases together.
+     */
+    public static void setMaxDecodedBytes(long bytes) {
+        maxDecodedBytes = bytes;
+        trimToSize(bytes);
+    }
+
+    public static long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /**
+     * Drops every decoded page, except those holding the given frames.
+     */
+    public static void trimMemory(SpriteAtlas keep, int[] keepFrames) {
+        trimMemory(new SpriteAtlas[]{keep}, new int[][]{keepFrames});
+    }
+
+    /**
+     * Drops every decoded page, except those holding the given frames of
+     * the atlas at the same index.
+     */
+    public static void trimMemory(SpriteAtlas[] keep, int[][] keepFrames) {
+        Iterator<Page> it = decodedPages.keySet().iterator();
+        while (it.hasNext()) {
+            Page page = it.next();
+            boolean kept = false;
+            for (int i = 0; i < keep.length && !kept; i++) {
+                kept = (page.atlas == keep[i] && keep[i].hasFrameOnPage(keepFrames[i], page));
+            }
+            if (!kept) {
+                decodedBytes -= page.getByteCount();
+                page.bitmap = null;
+                it.remove();
+            }
+        }
+    }
+
+    private static void trimToSize(long bytes) {
+        Iterator<Page> it = decodedPages.keySet().iterator();
+        while (decodedBytes > bytes && it.hasNext()) {
+            Page page = it.next();
+            decodedBytes -= page.getByteCount();
+            page.bitmap = null;
+            it.remove();
+        }
+    }
+
+    private static void dropPage(Page page) {
+        if (decodedPages.remove(page) != null) {
+            decodedBytes -= page.getByteCount();
+        }
+        page.bitmap = null;
+    }
+
+    private boolean hasFrameOnPage(int[] indices, Page page) {
+        for (int index : indices) {
+            int p = frames.get(index).page;
+            if (p >= 0 && pages.get(p) == page) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param mirror whether to draw the frame flipped horizontally, which
+     *               costs no extra pixels
+     * @return a new drawable for the frame at the given atlas index, or
+     * null if it is not packed
+     */
+    public Drawable newDrawable(int index, boolean mirror) {
+        Frame frame = frames.get(index);
+        if (frame.page < 0) {
+            return null;
+        }
+        return new SpriteDrawable(this, frame.page, frame.rect, mirror);
+    }
+
+    /**
+     * Makes sure the pages holding the given frames are decoded.
+     */
+    public void loadFrames(int[] indices) {
+        for (int index : indices) {
+            int page = frames.get(index).page;
+            if (page >= 0) {
+                getPageBitmap(page);
+            }
+        }
+    }
+
+    /**
+     * @return the decoded page, or null if it is not in memory; never
+     * decodes, so it is safe to call while drawing
+     */
+    Bitmap peekPageBitmap(int index) {
+        Page page = pages.get(index);
+        if (page.bitmap != null) {
+            decodedPages.get(page);
+        }
+        return page.bitmap;
+    }
+
+    private Bitmap getPageBitmap(int index) {
+        Page page = pages.get(index);
+        if (page.bitmap != null) {
+            decodedPages.get(page);
+            return page.bitmap;
+        }
+
+        if (Tracing.ENABLED) {
+            Tracing.begin("SpriteAtlas.decodePage");
+        }
+        Bitmap bitmap = Bitmap.createBitmap(page.width, page.height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (Frame frame : frames) {
+            if (frame == null || frame.page != index) {
+                continue;
+            }
+
+            if (Tracing.ENABLED) {
+                Tracing.begin("SpriteAtlas.decodeFrame");
+            }
+            Bitmap pixels = BitmapFactory.decodeResource(res, frame.resid);
+            if (pixels != null) {
+                canvas.drawBitmap(pixels, null, frame.rect, null);
+                pixels.recycle();
+            }
+            if (Tracing.ENABLED) {
+                Tracing.end();
+            }
+        }
+        if (Tracing.ENABLED) {
+            Tracing.end();
+        }
+
+        page.bitmap = bitmap;
+        decodedPages.put(page, page);
+        decodedBytes += page.getByteCount();
+        trimToSize(maxDecodedBytes);
+        return bitmap;
+    }
+
+    /**
+     * Reports, for every live atlas, how many bytes the shared frames take
+     * and how many they would take if every item decoded its own bitmap.
+     */
+    public static void dump(PrintWriter pw) {
+        pw.println("Sprite atlases: " + atlases.size() +
+                ", decoded " + decodedBytes + "/" + maxDecodedBytes + " bytes");
+        for (SpriteAtlas atlas : atlases.values()) {
+            long shared = 0;
+            long unshared = 0;
+            int live = 0;
+            for (Frame frame : atlas.frames) {
+                if (frame == null || frame.rect == null) {
+                    continue;
+                }
+                long bytes = 4L * frame.rect.width() * frame.rect.height();
+                shared += bytes;
+                unshared += bytes * frame.uses;
+                live++;
+            }
+            pw.println("  " + atlas.key + ": " + live + " frames, " +
+                    atlas.refCount + " users, " + shared + " bytes shared, " +
+                    unshared + " bytes unshared, " + (unshared - shared) + " bytes saved");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.lonamiwebs.aneko;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws a single frame out of a {@link SpriteAtlas} page. Pages are
+ * decoded when a motion is loaded, never while drawing; a page trimmed
+ * since then draws nothing until it is loaded again. Mirrored frames are
+ * flipped on the canvas.
+ */
+public class SpriteDrawable extends Drawable {
+    private final SpriteAtlas atlas;
+    private final int page;
+    private final Rect src;
+    private final boolean mirror;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+
+    SpriteDrawable(SpriteAtlas atlas, int page, Rect src, boolean mirror) {
+        this.atlas = atlas;
+        this.page = page;
+        this.src = src;
+        this.mirror = mirror;
+    }
+
+    @Override
+    public Drawable.ConstantState getConstantState() {
+        return new SpriteConstantState(atlas, page, src, mirror);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return src.width();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return src.height();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Bitmap bitmap = atlas.peekPageBitmap(page);
+        if (bitmap == null) {
+            return;
+        }
+
+        Rect bounds = getBounds();
+        if (!mirror) {
+            canvas.drawBitmap(bitmap, src, bounds, paint);
+            return;
+        }
+
+        int save = canvas.save();
+        canvas.scale(-1, 1, bounds.exactCenterX(), bounds.exactCenterY());
+        canvas.drawBitmap(bitmap, src, bounds, paint);
+        canvas.restoreToCount(save);
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (paint.getAlpha() != alpha) {
+            paint.setAlpha(alpha);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        paint.setColorFilter(cf);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setDither(boolean dither) {
+        paint.setDither(dither);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setFilterBitmap(boolean filter) {
+        paint.setFilterBitmap(filter);
+        invalidateSelf();
+    }
+
+    /**
+     * Makes drawables of the same frame, each with its own paint.
+     */
+    private static class SpriteConstantState extends ConstantState {
+        private final SpriteAtlas atlas;
+        private final int page;
+        private final Rect src;
+        private final boolean mirror;
+
+        private SpriteConstantState(SpriteAtlas atlas, int page, Rect src, boolean mirror) {
+            this.atlas = atlas;
+            this.page = page;
+            this.src = src;
+            this.mirror = mirror;
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new SpriteDrawable(atlas, page, src, mirror);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.lonamiwebs.aneko;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * Labels ANeko work in systrace and Perfetto. Only builds with
+ * {@link BuildConfig#TRACE} set do any of it; call sites check
+ * {@link #ENABLED} first, so the compiler drops them from other builds.
+ * <p>
+ * Sections need API 18. Async slices and counters are only public from
+ * API 29, and go through the equivalent hidden methods before that; the
+ * reflective calls box their arguments, so {@link Counter} only emits
+ * changed values, and the first failing call turns them off for good.
+ */
+public final class Tracing {
+    public static final boolean ENABLED = BuildConfig.TRACE;
+
+    private static final boolean JB_MR2_OR_LATER =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    private static final boolean Q_OR_LATER = Build.VERSION.SDK_INT >= 29;
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private static Method asyncBegin;
+    private static Method asyncEnd;
+    private static Method counter;
+
+    static {
+        if (ENABLED && JB_MR2_OR_LATER) {
+            try {
+                if (Q_OR_LATER) {
+                    asyncBegin = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+                    asyncEnd = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+                    counter = Trace.class.getMethod("setCounter", String.class, long.class);
+                } else {
+                    asyncBegin = Trace.class.getMethod("asyncTraceBegin",
+                            long.class, String.class, int.class);
+                    asyncEnd = Trace.class.getMethod("asyncTraceEnd",
+                            long.class, String.class, int.class);
+                    counter = Trace.class.getMethod("traceCounter",
+                            long.class, String.class, int.class);
+                }
+            } catch (Exception e) {
+                // sections still work without them
+                e.printStackTrace();
+                asyncBegin = asyncEnd = counter = null;
+            }
+        }
+    }
+
+    private Tracing() {
+    }
+
+    /**
+     * Opens a section on the current thread, closed by {@link #end}.
+     */
+    public static void begin(String name) {
+        if (ENABLED && JB_MR2_OR_LATER) {
+            Trace.beginSection(name);
+        }
+    }
+
+    public static void end() {
+        if (ENABLED && JB_MR2_OR_LATER) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Opens a slice that may end on another thread or tick; the name and
+     * cookie given to {@link #endAsync} must match.
+     */
+    public static void beginAsync(String name, int cookie) {
+        if (ENABLED && asyncBegin != null) {
+            invoke(asyncBegin, name, cookie);
+        }
+    }
+
+    public static void endAsync(String name, int cookie) {
+        if (ENABLED && asyncEnd != null) {
+            invoke(asyncEnd, name, cookie);
+        }
+    }
+
+    private static void setCounter(String name, int value) {
+        if (ENABLED && counter != null) {
+            invoke(counter, name, Q_OR_LATER ? (Object) (long) value : (Object) value);
+        }
+    }
+
+    private static void invoke(Method method, String name, Object value) {
+        try {
+            if (Q_OR_LATER) {
+                method.invoke(null, name, value);
+            } else {
+                method.invoke(null, TRACE_TAG_APP, name, value);
+            }
+        } catch (Exception e) {
+            // e.g. hidden API checks; it would fail the same way every call
+            e.printStackTrace();
+            asyncBegin = asyncEnd = counter = null;
+        }
+    }
+
+    /**
+     * A counter track, set only when its value changes.
+     */
+    public static final class Counter {
+        private final String name;
+        private boolean emitted = false;
+        private int value;
+
+        public Counter(String _name) {
+            name = _name;
+        }
+
+        public void set(int _value) {
+            if (!emitted || value != _value) {
+                emitted = true;
+                value = _value;
+                setCounter(name, value);
+            }
+        }
+    }
+}
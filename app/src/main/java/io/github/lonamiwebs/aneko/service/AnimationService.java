@@ -5,6 +5,7 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -16,24 +17,47 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
+import android.os.Process;
 import android.preference.PreferenceManager;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
-import android.widget.ImageView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import io.github.lonamiwebs.aneko.AnimationClock;
 import io.github.lonamiwebs.aneko.MotionDrawable;
 import io.github.lonamiwebs.aneko.MotionParams;
+import io.github.lonamiwebs.aneko.MotionSimulation;
+import io.github.lonamiwebs.aneko.MotionTrace;
 import io.github.lonamiwebs.aneko.NekoSkin;
 import io.github.lonamiwebs.aneko.R;
+import io.github.lonamiwebs.aneko.SpriteAtlas;
+import io.github.lonamiwebs.aneko.TouchQueue;
+import io.github.lonamiwebs.aneko.Tracing;
+import io.github.lonamiwebs.aneko.WakeupStats;
 import io.github.lonamiwebs.aneko.behaviours.Behaviour;
 
 public class AnimationService extends Service {
@@ -51,13 +75,35 @@ public class AnimationService extends Service {
     public static final String PREF_KEY_TRANSPARENCY = "motion.transparency";
     public static final String PREF_KEY_BEHAVIOUR = "motion.behaviour";
     public static final String PREF_KEY_SKIN_COMPONENT = "motion.skin";
+    public static final String PREF_KEY_PHYSICS_RATE = "motion.physics_rate";
+    public static final String PREF_KEY_RENDERER = "motion.renderer";
+    public static final String PREF_KEY_CAT_COUNT = "motion.cat_count";
 
     private static final int NOTIF_ID = 1;
 
     private static final int MSG_ANIMATE = 1;
-
-    static final long ANIMATION_INTERVAL = 125; // msec
-    private static final long BEHAVIOUR_CHANGE_DURATION = 4000; // msec
+    private static final int MSG_START = 2;
+    private static final int MSG_STOP = 3;
+    private static final int MSG_TOUCH = 4;
+    private static final int MSG_DISPLAY = 5;
+    private static final int MSG_PREF = 6;
+    private static final int MSG_PACKAGES = 7;
+    private static final int MSG_TRIM_MEMORY = 8;
+    private static final int MSG_TRACE = 9;
+    private static final String[] MSG_NAMES = { // trace section of each message
+            null, "MSG_ANIMATE", "MSG_START", "MSG_STOP", "MSG_TOUCH", "MSG_DISPLAY",
+            "MSG_PREF", "MSG_PACKAGES", "MSG_TRIM_MEMORY", "MSG_TRACE"
+    };
+    private static final String TRACE_TOUCH = "touch to movement";
+
+    private static final int TOUCH_QUEUE_SIZE = 64;
+    static final int FLIGHT_RECORDER_SIZE = 8192; // ticks, over two minutes at 60 fps
+    private static final long DUMP_TIMEOUT = 1000; // msec
+
+    static final String DEF_PHYSICS_RATE = "8"; // steps per sec
+    private static final String DEF_CAT_COUNT = "1";
+    private static final int MAX_CATS = 12;
+    private static final long FRAME_SLACK = 8000000L; // nsec, half a frame
 
     private static final String ACTION_EXTERNAL_APPLICATIONS_AVAILABLE =
             "android.intent.action.EXTERNAL_APPLICATIONS_AVAILABLE";
@@ -66,31 +112,141 @@ public class AnimationService extends Service {
 
     private static final boolean ICS_OR_LATER =
             Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH;
+    private static final boolean JB_OR_LATER =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
 
     private boolean isStarted;
     private SharedPreferences prefs;
     private PreferenceChangeListener prefListener;
-
-    private Handler handler;
-    private MotionState motionState;
-    private Random random;
+    private Handler mainHandler;
     private View touchView;
-    private ImageView imageView;
     private WindowManager.LayoutParams touchParams;
-    private WindowManager.LayoutParams imageParams;
     private BroadcastReceiver receiver;
 
+    // the overlay image window and everything animating it belong to the
+    // render thread, so stalls on the main thread do not stall the cat
+    private HandlerThread renderThread;
+    private Handler handler;
+    private TouchQueue touchQueue;
+    private AtomicBoolean touchPending;
+    private float[] touchPoint = new float[2];
+    private VsyncCallback vsyncCallback;
+    private AnimationClock clock;
+    private MotionSimulation sim; // steps the cats; this only draws them
+    private long physicsInterval; // nsec
+    private Point position = new Point();
+    private ArrayList<MotionState> cats = new ArrayList<MotionState>();
+
+    // performance stats, all kept on the render thread but touchTime
+    private final LatencyHistogram tickTimes = new LatencyHistogram("tick");
+    private final LatencyHistogram frameLateness = new LatencyHistogram("frame change late");
+    private final LatencyHistogram stepLateness = new LatencyHistogram("physics step late");
+    private final LatencyHistogram touchLatency = new LatencyHistogram("touch to movement");
+    private final LatencyHistogram skinLoadTimes = new LatencyHistogram("skin load");
+    private final WakeupStats wakeups = new WakeupStats();
+    private final AtomicLong touchTime = new AtomicLong(); // nsec of the oldest unhandled touch
+    private long pendingTouchTime; // nsec of the last touch not followed by movement yet
+    private boolean touchMoved;
+    private long tickCount;
+    private long statsStart = System.nanoTime();
+    private FlightRecorder flightRecorder; // null if the file could not be mapped
+    private long lastFrameTime; // nsec, 0 after a stop
+    private Random random;
+    private OverlayRenderer renderer;
+    private MotionParamsCache paramsCache;
+    private MotionParamsDiskCache paramsDiskCache;
+    private MessageQueue.IdleHandler prefetcher;
+
     @Override
     public void onCreate() {
         isStarted = false;
-        handler = new Handler(new Handler.Callback() {
+        mainHandler = new Handler();
+        renderThread = new HandlerThread("ANekoRender", Process.THREAD_PRIORITY_DISPLAY);
+        renderThread.start();
+        touchQueue = new TouchQueue(TOUCH_QUEUE_SIZE);
+        touchPending = new AtomicBoolean(false);
+        handler = new Handler(renderThread.getLooper(), new Handler.Callback() {
             @Override
             public boolean handleMessage(Message msg) {
-                return onHandleMessage(msg);
+                if (!Tracing.ENABLED || msg.what <= 0 || msg.what >= MSG_NAMES.length) {
+                    return onHandleMessage(msg);
+                }
+                Tracing.begin(MSG_NAMES[msg.what]);
+                try {
+                    return onHandleMessage(msg);
+                } finally {
+                    Tracing.end();
+                }
+            }
+        });
+        if (JB_OR_LATER) {
+            vsyncCallback = new VsyncCallback();
+        }
+        clock = new AnimationClock();
+        clock.setWakeupListener(new AnimationClock.WakeupListener() {
+            @Override
+            public void onWakeupChanged(long deadline) {
+                scheduleWakeup(clock.now());
+            }
+        });
+        clock.setWakeupStats(wakeups);
+        clock.setTimerObserver(new AnimationClock.TimerObserver() {
+            @Override
+            public void onTimerRun(AnimationClock.Timer timer, long lateness) {
+                (timer.getCause() == WakeupStats.CAUSE_MOVEMENT ?
+                        stepLateness : frameLateness).record(lateness);
+            }
+        });
+        // the display and step rate are set once known
+        sim = new MotionSimulation(clock, 1, 1, 1000000000L / Integer.valueOf(DEF_PHYSICS_RATE));
+        sim.setListener(new MotionSimulation.Listener() {
+            @Override
+            public void onStep(MotionSimulation sim) {
+                for (int i = 0; i < cats.size(); i++) {
+                    touchMoved |= (pendingTouchTime > 0 && cats.get(i).isPositionMoved());
+                }
+            }
+
+            @Override
+            public void onStateChanged(MotionSimulation.Agent agent) {
+                updateDrawable((MotionState) agent);
             }
         });
+        prefetcher = new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                for (int i = 0; i < cats.size(); i++) {
+                    MotionState cat = cats.get(i);
+                    cat.params.prefetch(cat.getState());
+                }
+                return false;
+            }
+        };
         random = new Random();
+        paramsCache = new MotionParamsCache(Runtime.getRuntime().maxMemory() / 8);
+        paramsDiskCache = new MotionParamsDiskCache(new File(getCacheDir(), "skins"));
+        try {
+            flightRecorder = new FlightRecorder(getFlightRecorderFile(this), FLIGHT_RECORDER_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        loadPhysicsRate();
+    }
+
+    @Override
+    public void onDestroy() {
+        // after any stop still queued on the render thread
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (flightRecorder != null) {
+                    flightRecorder.close();
+                    flightRecorder = null;
+                }
+                Looper.myLooper().quit();
+            }
+        });
     }
 
     @Override
@@ -123,14 +279,170 @@ public class AnimationService extends Service {
 
     @Override
     public void onConfigurationChanged(Configuration conf) {
-        if (!isStarted || motionState == null) {
+        if (!isStarted) {
             return;
         }
 
         WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
         int dw = wm.getDefaultDisplay().getWidth();
         int dh = wm.getDefaultDisplay().getHeight();
-        motionState.display.set(dw, dh);
+        handler.obtainMessage(MSG_DISPLAY, dw, dh).sendToTarget();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        final boolean reset = (args != null && args.length == 1 && "reset".equals(args[0]));
+
+        // "flight" prints the recent ticks as CSV, "flight export" saves
+        // them in their binary layout
+        final boolean flight = (args != null && args.length >= 1 && "flight".equals(args[0]));
+        final boolean export = (flight && args.length == 2 && "export".equals(args[1]));
+
+        // "trace start" restarts the cats and records them until "trace stop"
+        if (args != null && args.length >= 1 && "trace".equals(args[0])) {
+            boolean start = (args.length == 2 && "start".equals(args[1]));
+            boolean stop = (args.length == 2 && "stop".equals(args[1]));
+            if (!start && !stop) {
+                pw.println("usage: trace start|stop");
+                return;
+            }
+            handler.obtainMessage(MSG_TRACE, start ? 1 : 0, 0).sendToTarget();
+            pw.println("trace " + (start ? "started" : "stopped") + ": " + getTraceFile());
+            return;
+        }
+
+        // the atlases are only touched from the render thread; it writes
+        // into its own buffer, so a late run cannot touch pw once we returned
+        final StringWriter buffer = new StringWriter();
+        final PrintWriter out = new PrintWriter(buffer);
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (reset) {
+                    resetStats();
+                    out.println("stats reset");
+                } else if (flight) {
+                    dumpFlightRecorder(out, export);
+                } else {
+                    dumpStats(out);
+                    if (renderer != null) {
+                        renderer.dump(out);
+                    }
+                    SpriteAtlas.dump(out);
+                }
+                out.flush();
+                done.countDown();
+            }
+        });
+        try {
+            if (done.await(DUMP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                pw.print(buffer.toString());
+            } else {
+                pw.println("render thread is not responding");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static File getFlightRecorderFile(Context context) {
+        return new File(context.getFilesDir(), "flight.rec");
+    }
+
+    private void dumpFlightRecorder(PrintWriter pw, boolean export) {
+        if (flightRecorder == null) {
+            pw.println("flight recorder is not available");
+            return;
+        }
+        if (!export) {
+            flightRecorder.dumpCsv(pw);
+            return;
+        }
+
+        File file = new File(getFilesDir(), "flight.bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                flightRecorder.writeTo(out);
+            } finally {
+                out.close();
+            }
+            pw.println(flightRecorder.size() + " ticks exported: " + file);
+        } catch (IOException e) {
+            pw.println("export failed: " + e);
+        }
+    }
+
+    private void dumpStats(PrintWriter pw) {
+        long elapsed = System.nanoTime() - statsStart;
+        pw.print("Stats for the last ");
+        pw.print(elapsed / 1000000000L);
+        pw.print("s: ");
+        pw.print(tickCount);
+        pw.print(" ticks, ");
+        pw.print(elapsed > 0 ? tickCount * 1000000000L / elapsed : 0);
+        pw.println(" per sec");
+        tickTimes.dump(pw);
+        frameLateness.dump(pw);
+        stepLateness.dump(pw);
+        touchLatency.dump(pw);
+        skinLoadTimes.dump(pw);
+        wakeups.dump(pw, elapsed);
+    }
+
+    private void resetStats() {
+        tickTimes.reset();
+        frameLateness.reset();
+        stepLateness.reset();
+        touchLatency.reset();
+        skinLoadTimes.reset();
+        wakeups.reset();
+        if (renderer != null) {
+            renderer.resetStats();
+        }
+        tickCount = 0;
+        statsStart = System.nanoTime();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        handler.obtainMessage(MSG_TRIM_MEMORY, level, 0).sendToTarget();
+    }
+
+    @Override
+    public void onLowMemory() {
+        handler.obtainMessage(MSG_TRIM_MEMORY, ComponentCallbacks2.TRIM_MEMORY_COMPLETE, 0)
+                .sendToTarget();
+    }
+
+    /**
+     * Drops decoded pages other cats do not show when memory runs low,
+     * and skins nobody uses only when it runs out. The overlay hiding its
+     * UI trims nothing, as that happens in normal use.
+     */
+    private void trimMemory(int level) {
+        boolean running = (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        boolean evictPages = (running ?
+                level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW :
+                level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        boolean clearCache = (running ?
+                level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL :
+                level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        if (clearCache) {
+            paramsCache.clear();
+        }
+        if (!evictPages || cats.isEmpty()) {
+            return;
+        }
+
+        MotionParams[] params = new MotionParams[cats.size()];
+        int[] states = new int[cats.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = cats.get(i).params;
+            states[i] = cats.get(i).getState();
+        }
+        MotionParams.trimMemory(params, states);
     }
 
     private void startAnimation() {
@@ -140,9 +452,6 @@ public class AnimationService extends Service {
         if (!checkPrefEnable()) {
             return;
         }
-        if (!loadMotionState()) {
-            return;
-        }
 
         // prepare to receive broadcast
         IntentFilter filter;
@@ -157,7 +466,7 @@ public class AnimationService extends Service {
         filter.addAction(ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
         registerReceiver(receiver, filter);
 
-        // touch event sink and overlay view
+        // touch event sink; the overlay view belongs to the render thread
         WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
 
         touchView = new View(this);
@@ -174,19 +483,20 @@ public class AnimationService extends Service {
         touchParams.gravity = Gravity.LEFT | Gravity.TOP;
         wm.addView(touchView, touchParams);
 
-        imageView = new ImageView(this);
-        imageParams = new WindowManager.LayoutParams(
-                WindowManager.LayoutParams.WRAP_CONTENT,
-                WindowManager.LayoutParams.WRAP_CONTENT,
-                WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY,
-                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE |
-                        WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE |
-                        WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
-                PixelFormat.TRANSLUCENT);
-        imageParams.gravity = Gravity.LEFT | Gravity.TOP;
-        wm.addView(imageView, imageParams);
+        handler.sendEmptyMessage(MSG_START);
+    }
 
-        requestAnimate();
+    private void onRenderStart() {
+        if (!setCatCount(loadCatCount())) {
+            releaseCats();
+            return;
+        }
+
+        loadRenderer();
+        for (int i = 0; i < cats.size(); i++) {
+            updateDrawable(cats.get(i));
+        }
+        updatePosition();
     }
 
     private void stopAnimation() {
@@ -196,19 +506,25 @@ public class AnimationService extends Service {
         if (touchView != null) {
             wm.removeView(touchView);
         }
-        if (imageView != null) {
-            wm.removeView(imageView);
-        }
         if (receiver != null) {
             unregisterReceiver(receiver);
         }
-
-        motionState = null;
         touchView = null;
-        imageView = null;
         receiver = null;
 
-        handler.removeMessages(MSG_ANIMATE);
+        handler.sendEmptyMessage(MSG_STOP);
+    }
+
+    private void onRenderStop() {
+        stopTrace();
+        releaseCats();
+        if (renderer != null) {
+            renderer.detach();
+        }
+        renderer = null;
+
+        cancelAnimate();
+        lastFrameTime = 0;
     }
 
     private void toggleAnimation() {
@@ -248,43 +564,86 @@ public class AnimationService extends Service {
         }
     }
 
-    private boolean loadMotionState() {
-        String skinPkg = prefs.getString(PREF_KEY_SKIN_COMPONENT, null);
-        ComponentName skinComp = skinPkg == null ? null : ComponentName.unflattenFromString(skinPkg);
+    /**
+     * Reads a preference of the given cat. Cats after the first may have
+     * their own value under "key.index", and share the first cat's otherwise.
+     */
+    private String getCatPref(String key, int index, String def) {
+        String value = (index > 0 ? prefs.getString(key + "." + index, null) : null);
+        return (value != null ? value : prefs.getString(key, def));
+    }
 
-        if (skinComp != null && loadMotionState(skinComp)) {
-            return true;
-        }
+    private static boolean isCatPref(String key, String prefKey) {
+        return key.equals(prefKey) || key.startsWith(prefKey + ".");
+    }
 
-        skinComp = new ComponentName(this, NekoSkin.class);
-        return loadMotionState(skinComp);
+    private int loadCatCount() {
+        int count = Integer.valueOf(prefs.getString(PREF_KEY_CAT_COUNT, DEF_CAT_COUNT));
+        return Math.min(Math.max(count, 1), MAX_CATS);
     }
 
-    private boolean loadMotionState(ComponentName skinComp) {
-        motionState = new MotionState(new MotionDrawable.OnMotionEndListener() {
-            @Override
-            public void onMotionEnd(MotionDrawable drawable) {
-                if (isStarted && motionState != null &&
-                        drawable == motionState.getCurrentDrawable()) {
-                    updateToNext();
-                }
+    /**
+     * Adds or removes cats at the end until there are as many as wanted.
+     * @return false if a cat could not be loaded
+     */
+    private boolean setCatCount(int count) {
+        while (cats.size() > count) {
+            // a replay cannot drop cats
+            stopTrace();
+            MotionState cat = cats.remove(cats.size() - 1);
+            MotionDrawable drawable = cat.getCurrentDrawable();
+            if (drawable != null) {
+                drawable.stop();
             }
-        });
+            releaseCat(cat);
+        }
+        if (renderer != null && renderer.getSpriteCount() > cats.size()) {
+            renderer.setSpriteCount(cats.size());
+        }
 
-        try {
-            PackageManager pm = getPackageManager();
-            ActivityInfo ai = pm.getActivityInfo(skinComp, PackageManager.GET_META_DATA);
-            Resources res = pm.getResourcesForActivity(skinComp);
+        while (cats.size() < count) {
+            MotionState cat = loadCat(cats.size());
+            if (cat == null) {
+                return false;
+            }
+            cats.add(cat);
+            sim.addAgent(cat);
+
+            if (renderer != null) {
+                renderer.setSpriteCount(cats.size());
+                updateDrawable(cat);
+                updatePosition();
+            }
+        }
+        return true;
+    }
 
-            int rid = ai.metaData.getInt(META_KEY_SKIN, 0);
+    private void releaseCats() {
+        setCatCount(0);
+    }
 
-            MotionParams params = new MotionParams(this, res, rid);
-            motionState.setParams(params);
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, R.string.msg_skin_load_failed, Toast.LENGTH_LONG).show();
-            startService(new Intent(this, AnimationService.class).setAction(ACTION_TOGGLE));
-            return false;
+    private void releaseCat(MotionState cat) {
+        sim.removeAgent(cat);
+    }
+
+    private MotionState loadCat(int index) {
+        if (Tracing.ENABLED) {
+            Tracing.begin("AnimationService.loadCat");
+        }
+        try {
+            return loadCatTraced(index);
+        } finally {
+            if (Tracing.ENABLED) {
+                Tracing.end();
+            }
+        }
+    }
+
+    private MotionState loadCatTraced(int index) {
+        MotionState cat = new MotionState(sim, index);
+        if (!loadSkin(cat)) {
+            releaseCat(cat);
+            return null;
         }
 
         WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
@@ -303,76 +662,417 @@ public class AnimationService extends Service {
             }
         }
 
-        String alphaStr = prefs.getString(PREF_KEY_TRANSPARENCY, "0.0");
-        motionState.alpha = (int) ((1 - Float.valueOf(alphaStr)) * 0xff);
+        loadTransparency(cat);
+        loadBehaviour(cat);
 
-        motionState.setBehaviour(Behaviour.fromName(
-                prefs.getString(PREF_KEY_BEHAVIOUR, motionState.behaviour.toString())));
+        sim.setDisplay(dw, dh);
+        cat.setPosition(cx, cy);
+        if (index == 0) {
+            cat.setTarget(dw / 2, dh / 2);
+        } else {
+            cat.setTarget(random.nextInt(Math.max(dw, 1)), random.nextInt(Math.max(dh, 1)));
+        }
 
-        motionState.display.set(dw, dh);
-        motionState.cur.set(cx, cy);
-        motionState.target.set(dw / 2, dh / 2);
+        return cat;
+    }
+
+    /**
+     * Loads the configured skin into a cat, keeping its position and
+     * velocity.
+     */
+    private boolean loadSkin(MotionState cat) {
+        String skinPkg = getCatPref(PREF_KEY_SKIN_COMPONENT, cat.index, null);
+        ComponentName skinComp = skinPkg == null ? null : ComponentName.unflattenFromString(skinPkg);
 
+        if (Tracing.ENABLED) {
+            Tracing.begin("AnimationService.loadSkin");
+        }
+        long start = System.nanoTime();
+        MotionParams params = (skinComp != null ? loadMotionParams(skinComp) : null);
+        if (params == null) {
+            params = loadMotionParams(new ComponentName(this, NekoSkin.class));
+        }
+        skinLoadTimes.record(System.nanoTime() - start);
+        if (Tracing.ENABLED) {
+            Tracing.end();
+        }
+        if (params == null) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(AnimationService.this, R.string.msg_skin_load_failed,
+                            Toast.LENGTH_LONG).show();
+                    startService(new Intent(AnimationService.this, AnimationService.class)
+                            .setAction(ACTION_TOGGLE));
+                }
+            });
+            return false;
+        }
+
+        cat.setParams(params);
+        sim.setGraph(cat, params);
         return true;
     }
 
-    private void requestAnimate() {
-        if (!handler.hasMessages(MSG_ANIMATE)) {
-            handler.sendEmptyMessage(MSG_ANIMATE);
+    private MotionParams loadMotionParams(ComponentName skinComp) {
+        try {
+            PackageManager pm = getPackageManager();
+            String key = MotionParamsCache.getKey(pm, skinComp);
+            MotionParams params = paramsCache.get(key);
+            if (params == null) {
+                Resources res = pm.getResourcesForActivity(skinComp);
+                params = paramsDiskCache.load(res, skinComp, key);
+                if (params == null) {
+                    ActivityInfo ai = pm.getActivityInfo(skinComp, PackageManager.GET_META_DATA);
+                    int rid = ai.metaData.getInt(META_KEY_SKIN, 0);
+
+                    params = new MotionParams(this, res, rid);
+                    paramsDiskCache.save(res, skinComp, key, params);
+                }
+                paramsCache.put(key, skinComp.getPackageName(), params);
+            }
+            return params;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void loadTransparency(MotionState cat) {
+        String alphaStr = prefs.getString(PREF_KEY_TRANSPARENCY, "0.0");
+        cat.alpha = (int) ((1 - Float.valueOf(alphaStr)) * 0xff);
+
+        MotionDrawable drawable = cat.getCurrentDrawable();
+        if (drawable != null) {
+            drawable.setAlpha(cat.alpha);
+        }
+    }
+
+    private void loadBehaviour(MotionState cat) {
+        Behaviour behaviour = Behaviour.fromName(
+                getCatPref(PREF_KEY_BEHAVIOUR, cat.index, cat.getBehaviour().getName()));
+        sim.setBehaviour(cat, behaviour, random.nextLong());
+    }
+
+    private void reloadSkin(MotionState cat) {
+        MotionDrawable old = cat.getCurrentDrawable();
+        if (loadSkin(cat)) {
+            if (old != null) {
+                old.stop();
+            }
+            updateDrawable(cat);
+            updatePosition();
+        } else {
+            releaseCats();
+        }
+    }
+
+    /**
+     * Puts the cats on the configured renderer, moving them over from the
+     * current one if any. Several cats always share a single overlay.
+     */
+    private void loadRenderer() {
+        String name = (cats.size() > 1 ? OverlayRenderer.RENDERER_CANVAS :
+                prefs.getString(PREF_KEY_RENDERER, OverlayRenderer.RENDERER_WINDOW));
+        if (renderer != null && renderer.getName().equals(name)) {
+            return;
+        }
+
+        OverlayRenderer old = renderer;
+        renderer = OverlayRenderer.create(this, name);
+        if (old != null) {
+            renderer.copyFrom(old);
+            old.detach();
+        } else {
+            renderer.setSpriteCount(cats.size());
         }
+        renderer.attach();
+    }
+
+    private void loadPhysicsRate() {
+        int rate = Integer.valueOf(prefs.getString(PREF_KEY_PHYSICS_RATE, DEF_PHYSICS_RATE));
+        physicsInterval = 1000000000L / Math.max(rate, 1);
+        sim.setStepInterval(physicsInterval);
+    }
+
+    private void cancelAnimate() {
+        clock.clear();
+        cancelWakeup();
     }
 
-    private void updateDrawable() {
-        if (motionState == null || imageView == null) {
+    /**
+     * Wakes up for the next vsync while moving, so the position can be
+     * interpolated, and for the next clock deadline otherwise.
+     */
+    private void scheduleWakeup(long now) {
+        cancelWakeup();
+
+        long deadline = clock.getNextDeadline();
+        if (deadline < 0) {
             return;
         }
 
-        MotionDrawable drawable = motionState.getCurrentDrawable();
+        long delay = (sim.isAnimating() ? 0 : Math.max(deadline - now - FRAME_SLACK, 0));
+        if (JB_OR_LATER) {
+            Choreographer.getInstance().postFrameCallbackDelayed(
+                    vsyncCallback, delay / 1000000);
+        } else {
+            delay = Math.max(deadline - now, 0);
+            handler.sendEmptyMessageDelayed(MSG_ANIMATE, delay / 1000000);
+        }
+    }
+
+    private void cancelWakeup() {
+        handler.removeMessages(MSG_ANIMATE);
+        if (JB_OR_LATER) {
+            Choreographer.getInstance().removeFrameCallback(vsyncCallback);
+        }
+    }
+
+    private void onAnimationFrame(long frameTime) {
+        if (cats.isEmpty()) {
+            cancelAnimate();
+            return;
+        }
+
+        // frame changes and physics steps due by this frame, then one
+        // overlay update for all of them
+        long start = System.nanoTime();
+        long moveStart = (renderer != null ? renderer.getMoveTime() : 0);
+        clock.tick(frameTime, FRAME_SLACK);
+        updatePosition(frameTime);
+        scheduleWakeup(frameTime);
+
+        long end = System.nanoTime();
+        tickTimes.record(end - start);
+        tickCount++;
+        if (flightRecorder != null) {
+            boolean shown = (renderer != null && renderer.getSpriteCount() > 0);
+            flightRecorder.record(System.currentTimeMillis(),
+                    (lastFrameTime > 0 ? frameTime - lastFrameTime : 0),
+                    end - start, (renderer != null ? renderer.getMoveTime() - moveStart : 0),
+                    cats.size(), cats.get(0).getState(),
+                    (shown ? renderer.getX(0) : 0), (shown ? renderer.getY(0) : 0));
+        }
+        lastFrameTime = frameTime;
+        if (touchMoved) {
+            touchLatency.record(end - pendingTouchTime);
+            touchMoved = false;
+            pendingTouchTime = 0;
+            if (Tracing.ENABLED) {
+                Tracing.endAsync(TRACE_TOUCH, 0);
+            }
+        }
+    }
+
+    private void updateDrawable(MotionState cat) {
+        if (renderer == null || cat.index >= renderer.getSpriteCount()) {
+            return;
+        }
+
+        MotionDrawable drawable = cat.getCurrentDrawable();
         if (drawable == null) {
             return;
         }
 
-        drawable.setAlpha(motionState.alpha);
-        imageView.setImageDrawable(drawable);
+        Drawable old = renderer.getDrawable(cat.index);
+        if (old != drawable && old instanceof MotionDrawable) {
+            ((MotionDrawable) old).stop();
+        }
+
+        cat.params.load(cat.getState());
+        drawable.setClock(clock);
+        drawable.setAlpha(cat.alpha);
+        renderer.setDrawable(cat.index, drawable);
+        if (Tracing.ENABLED) {
+            cat.traceState.set(cat.getState());
+        }
         drawable.stop();
         drawable.start();
+        // the motion ends when the cat's own timeline says so, not the drawable's
+        drawable.seekTo((clock.now() - cat.getStateStart()) / 1000000);
+
+        // decode what is likely to come next once the frame is out
+        MessageQueue queue = Looper.myQueue();
+        queue.removeIdleHandler(prefetcher);
+        queue.addIdleHandler(prefetcher);
     }
 
     private void updatePosition() {
-        Point pt = motionState.getPosition();
-        imageParams.x = pt.x;
-        imageParams.y = pt.y;
+        updatePosition(clock.now());
+    }
 
-        WindowManager wm = (WindowManager) getSystemService(WINDOW_SERVICE);
-        wm.updateViewLayout(imageView, imageParams);
+    private void updatePosition(long now) {
+        if (renderer == null) {
+            return;
+        }
+
+        if (Tracing.ENABLED) {
+            Tracing.begin("AnimationService.updatePosition");
+        }
+        float alpha = sim.getStepFraction(now);
+        int count = Math.min(cats.size(), renderer.getSpriteCount());
+        for (int i = 0; i < count; i++) {
+            MotionState cat = cats.get(i);
+            cat.getPosition(cat.isAnimating() ? alpha : 1, position);
+            renderer.moveTo(i, position.x, position.y);
+            if (Tracing.ENABLED) {
+                cat.traceX.set(position.x);
+                cat.traceY.set(position.y);
+            }
+        }
+        if (Tracing.ENABLED) {
+            Tracing.end();
+        }
     }
 
-    private void updateToNext() {
-        if (motionState.checkWall() ||
-                motionState.updateMovingState() ||
-                motionState.changeToNextState()) {
-            updateDrawable();
-            updatePosition();
-            requestAnimate();
+    private void onTouchEvents() {
+        wakeups.record(WakeupStats.CAUSE_TOUCH);
+        touchPending.set(false);
+        long time = touchTime.getAndSet(0);
+        if (time > 0) {
+            if (Tracing.ENABLED) {
+                // starts when handled, not when touched: the slice API
+                // has no way to backdate it
+                if (pendingTouchTime > 0) {
+                    Tracing.endAsync(TRACE_TOUCH, 0);
+                }
+                Tracing.beginAsync(TRACE_TOUCH, 0);
+            }
+            pendingTouchTime = time;
+        }
+
+        int type;
+        while ((type = touchQueue.poll(touchPoint)) >= 0) {
+            if (type == TouchQueue.TYPE_TARGET) {
+                sim.setTargetPosition(touchPoint[0], touchPoint[1]);
+            } else {
+                sim.forceStop();
+            }
+        }
+    }
+
+    private void onPrefChanged(String key) {
+        if (PREF_KEY_PHYSICS_RATE.equals(key)) {
+            // traces are stepped at a single rate
+            stopTrace();
+            loadPhysicsRate();
+        } else if (cats.isEmpty()) {
+            return;
+        } else if (PREF_KEY_CAT_COUNT.equals(key)) {
+            if (setCatCount(loadCatCount())) {
+                loadRenderer();
+            }
+        } else if (PREF_KEY_TRANSPARENCY.equals(key)) {
+            for (int i = 0; i < cats.size(); i++) {
+                loadTransparency(cats.get(i));
+            }
+        } else if (isCatPref(key, PREF_KEY_BEHAVIOUR)) {
+            for (int i = 0; i < cats.size(); i++) {
+                loadBehaviour(cats.get(i));
+            }
+        } else if (isCatPref(key, PREF_KEY_SKIN_COMPONENT)) {
+            for (int i = 0; i < cats.size(); i++) {
+                reloadSkin(cats.get(i));
+            }
+        } else if (PREF_KEY_RENDERER.equals(key)) {
+            loadRenderer();
+        }
+    }
+
+    private void onPackagesChanged(String[] pkgnames) {
+        for (String pkgname : pkgnames) {
+            paramsCache.removePackage(pkgname);
+            paramsDiskCache.removePackage(pkgname);
+            SpriteAtlas.invalidatePackage(pkgname);
+        }
+
+        for (int i = 0; i < cats.size(); i++) {
+            MotionState cat = cats.get(i);
+            String skin = getCatPref(PREF_KEY_SKIN_COMPONENT, cat.index, null);
+            ComponentName skinComp = skin == null ? null : ComponentName.unflattenFromString(skin);
+            if (skinComp == null) {
+                continue;
+            }
+
+            String skinPkg = skinComp.getPackageName();
+            for (String pkgname : pkgnames) {
+                if (skinPkg.equals(pkgname)) {
+                    reloadSkin(cat);
+                    break;
+                }
+            }
+        }
+    }
+
+    private File getTraceFile() {
+        return new File(getFilesDir(), "motion.trace");
+    }
+
+    /**
+     * Starts recording a {@link MotionTrace}, restarting the cats so the
+     * trace holds everything they do from the moment they appear.
+     */
+    private void startTrace() {
+        stopTrace();
+        if (cats.isEmpty()) {
+            return;
         }
+
+        onRenderStop();
+        try {
+            sim.startRecording(new FileOutputStream(getTraceFile()),
+                    getResources().getDisplayMetrics().density);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        onRenderStart();
+    }
+
+    private void stopTrace() {
+        sim.stopRecording();
     }
 
     private boolean onHandleMessage(Message msg) {
         switch (msg.what) {
             case MSG_ANIMATE:
                 handler.removeMessages(MSG_ANIMATE);
+                onAnimationFrame(System.nanoTime());
+                break;
 
-                motionState.updateState();
-                if (motionState.isStateChanged() ||
-                        motionState.isPositionMoved()) {
-                    if (motionState.isStateChanged()) {
-                        updateDrawable();
-                    }
+            case MSG_START:
+                onRenderStart();
+                break;
+
+            case MSG_STOP:
+                onRenderStop();
+                break;
+
+            case MSG_TOUCH:
+                onTouchEvents();
+                break;
+
+            case MSG_DISPLAY:
+                sim.setDisplay(msg.arg1, msg.arg2);
+                break;
 
-                    updatePosition();
+            case MSG_PREF:
+                onPrefChanged((String) msg.obj);
+                break;
+
+            case MSG_PACKAGES:
+                onPackagesChanged((String[]) msg.obj);
+                break;
+
+            case MSG_TRIM_MEMORY:
+                trimMemory(msg.arg1);
+                break;
 
-                    handler.sendEmptyMessageDelayed(
-                            MSG_ANIMATE, ANIMATION_INTERVAL);
+            case MSG_TRACE:
+                if (msg.arg1 != 0) {
+                    startTrace();
+                } else {
+                    stopTrace();
                 }
                 break;
 
@@ -401,8 +1101,8 @@ public class AnimationService extends Service {
                                               String key) {
             if (PREF_KEY_ENABLE.equals(key) || PREF_KEY_VISIBLE.equals(key)) {
                 checkPrefEnable();
-            } else if (loadMotionState()) {
-                requestAnimate();
+            } else {
+                handler.obtainMessage(MSG_PREF, key).sendToTarget();
             }
         }
     }
@@ -420,38 +1120,37 @@ public class AnimationService extends Service {
                 return;
             }
 
-            String skin = prefs.getString(PREF_KEY_SKIN_COMPONENT, null);
-            ComponentName skinComp = skin == null ? null : ComponentName.unflattenFromString(skin);
-            if (skinComp == null) {
-                return;
-            }
+            handler.obtainMessage(MSG_PACKAGES, pkgnames).sendToTarget();
+        }
+    }
 
-            String skinPkg = skinComp.getPackageName();
-            for (String pkgname : pkgnames) {
-                if (skinPkg.equals(pkgname)) {
-                    if (loadMotionState()) {
-                        requestAnimate();
-                    }
-                    break;
-                }
-            }
+    private class VsyncCallback implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onAnimationFrame(frameTimeNanos);
         }
     }
 
     private class TouchListener implements View.OnTouchListener {
         public boolean onTouch(View v, MotionEvent ev) {
-            if (motionState == null) {
+            boolean queued;
+            if (ev.getAction() == MotionEvent.ACTION_OUTSIDE) {
+                queued = touchQueue.offer(TouchQueue.TYPE_TARGET, ev.getX(), ev.getY());
+            } else if (ev.getAction() == MotionEvent.ACTION_CANCEL) {
+                queued = touchQueue.offer(TouchQueue.TYPE_CANCEL, 0, 0);
+            } else {
                 return false;
             }
 
-            if (ev.getAction() == MotionEvent.ACTION_OUTSIDE) {
-                motionState.setTargetPosition(ev.getX(), ev.getY());
-                requestAnimate();
-            } else if (ev.getAction() == MotionEvent.ACTION_CANCEL) {
-                motionState.forceStop();
-                requestAnimate();
+            // event times are uptime, the same clock as nanoTime
+            if (queued && ev.getAction() == MotionEvent.ACTION_OUTSIDE) {
+                touchTime.compareAndSet(0, ev.getEventTime() * 1000000);
             }
 
+            // one wakeup for however many events pile up before it runs
+            if (queued && touchPending.compareAndSet(false, true)) {
+                handler.sendEmptyMessage(MSG_TOUCH);
+            }
             return false;
         }
     }
@@ -0,0 +1,174 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.view.Gravity;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.util.ArrayList;
+
+/**
+ * Draws every cat on a single full-screen, non-touchable overlay. Moving
+ * only translates the drawing, so the window never relayouts and no call
+ * goes to the window manager per move, however many cats there are.
+ */
+class CanvasRenderer extends OverlayRenderer {
+    private static final boolean HONEYCOMB_OR_LATER =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    private SpriteView view;
+    private ArrayList<Rect> dirty = new ArrayList<Rect>();
+
+    CanvasRenderer(Context context) {
+        super(context);
+    }
+
+    @Override
+    String getName() {
+        return RENDERER_CANVAS;
+    }
+
+    @Override
+    void attach() {
+        view = new SpriteView(context);
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.MATCH_PARENT,
+                WindowManager.LayoutParams.MATCH_PARENT,
+                WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY,
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE |
+                        WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE |
+                        WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
+                        WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
+                PixelFormat.TRANSLUCENT);
+        if (HONEYCOMB_OR_LATER) {
+            params.flags |= WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED;
+        }
+        params.gravity = Gravity.LEFT | Gravity.TOP;
+        for (int i = 0; i < getSpriteCount(); i++) {
+            showDrawable(getDrawable(i));
+        }
+        wm.addView(view, params);
+    }
+
+    @Override
+    void detach() {
+        if (view != null) {
+            for (int i = 0; i < getSpriteCount(); i++) {
+                Drawable drawable = getDrawable(i);
+                if (drawable != null) {
+                    drawable.setCallback(null);
+                }
+            }
+            wm.removeView(view);
+        }
+        view = null;
+    }
+
+    @Override
+    protected void onSpriteAdded(int sprite) {
+        dirty.add(new Rect());
+    }
+
+    @Override
+    protected void onSpriteRemoved(int sprite) {
+        invalidateSprite(sprite);
+        Drawable drawable = getDrawable(sprite);
+        if (drawable != null && view != null) {
+            drawable.setCallback(null);
+        }
+        dirty.remove(sprite);
+    }
+
+    @Override
+    protected void onDrawableChanged(int sprite, Drawable drawable) {
+        if (view != null) {
+            showDrawable(drawable);
+            invalidateSprite(sprite);
+        }
+    }
+
+    @Override
+    protected void onMove(int sprite, int x, int y) {
+        invalidateSprite(sprite);
+    }
+
+    private void showDrawable(Drawable drawable) {
+        if (drawable != null) {
+            drawable.setCallback(view);
+            drawable.setVisible(view.getVisibility() == View.VISIBLE, true);
+        }
+    }
+
+    /**
+     * Invalidates where the sprite was last drawn and where it goes next,
+     * as frames and positions change.
+     */
+    private void invalidateSprite(int sprite) {
+        if (view == null) {
+            return;
+        }
+
+        Rect rect = dirty.get(sprite);
+        view.invalidate(rect);
+
+        Drawable drawable = getDrawable(sprite);
+        if (drawable == null) {
+            rect.setEmpty();
+            return;
+        }
+        int x = getX(sprite);
+        int y = getY(sprite);
+        rect.set(x, y,
+                x + Math.max(drawable.getIntrinsicWidth(), 0),
+                y + Math.max(drawable.getIntrinsicHeight(), 0));
+        view.invalidate(rect);
+    }
+
+    private class SpriteView extends View {
+        SpriteView(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected boolean verifyDrawable(Drawable who) {
+            for (int i = 0; i < getSpriteCount(); i++) {
+                if (who == getDrawable(i)) {
+                    return true;
+                }
+            }
+            return super.verifyDrawable(who);
+        }
+
+        @Override
+        public void invalidateDrawable(Drawable who) {
+            for (int i = 0; i < getSpriteCount(); i++) {
+                if (who == getDrawable(i)) {
+                    invalidateSprite(i);
+                    return;
+                }
+            }
+            super.invalidateDrawable(who);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            for (int i = 0; i < getSpriteCount(); i++) {
+                Drawable sprite = getDrawable(i);
+                if (sprite == null) {
+                    continue;
+                }
+
+                sprite.setBounds(0, 0, sprite.getIntrinsicWidth(), sprite.getIntrinsicHeight());
+                int save = canvas.save();
+                canvas.translate(CanvasRenderer.this.getX(i), CanvasRenderer.this.getY(i));
+                sprite.draw(canvas);
+                canvas.restoreToCount(save);
+            }
+        }
+    }
+}
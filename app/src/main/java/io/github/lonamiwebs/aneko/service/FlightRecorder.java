@@ -0,0 +1,171 @@
+package io.github.lonamiwebs.aneko.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last ticks of the render thread in a ring buffer mapped from a
+ * file, so they are still there when a jank report comes in after the
+ * process was killed. Writing a tick is a handful of stores into the
+ * mapping: it never allocates, locks or waits. Only used from the render
+ * thread.
+ * <p>
+ * The file is little endian: a header of {magic, version, capacity,
+ * record size} ints and the long count of ticks ever written, then
+ * capacity records of {wall time in msec, time since the previous tick,
+ * tick cost and window update cost in usec, cat count, state of the
+ * first cat, and its x and y on screen}. The count is only bumped once a
+ * record is complete, so a kill mid-write can at most tear the oldest
+ * record, which readers skip.
+ */
+class FlightRecorder {
+    private static final int MAGIC = 0x414e4b46; // "ANKF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int COUNT_OFFSET = 16;
+    private static final int RECORD_SIZE = 32;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long count;
+
+    /**
+     * Maps the given file, keeping the ticks already in it if it was
+     * written with the same layout.
+     */
+    FlightRecorder(File file, int _capacity) throws IOException {
+        capacity = _capacity;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        } finally {
+            // the mapping stays valid without the file open
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION &&
+                buffer.getInt(8) == capacity && buffer.getInt(12) == RECORD_SIZE) {
+            count = Math.max(buffer.getLong(COUNT_OFFSET), 0);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putInt(12, RECORD_SIZE);
+            buffer.putLong(COUNT_OFFSET, 0);
+            count = 0;
+        }
+    }
+
+    /**
+     * @param dt nsec since the previous tick, 0 for the first one
+     * @param tickTime nsec the tick took
+     * @param moveTime nsec of that spent updating the windows
+     */
+    void record(long wallTime, long dt, long tickTime, long moveTime,
+                int cats, int state, int x, int y) {
+        int pos = HEADER_SIZE + (int) (count % capacity) * RECORD_SIZE;
+        buffer.putLong(pos, wallTime);
+        buffer.putInt(pos + 8, toUsec(dt));
+        buffer.putInt(pos + 12, toUsec(tickTime));
+        buffer.putInt(pos + 16, toUsec(moveTime));
+        buffer.putShort(pos + 20, (short) cats);
+        buffer.putShort(pos + 22, (short) state);
+        buffer.putInt(pos + 24, x);
+        buffer.putInt(pos + 28, y);
+
+        count++;
+        buffer.putLong(COUNT_OFFSET, count);
+    }
+
+    /**
+     * Writes the ticks back to the file. Java cannot unmap a buffer, so
+     * the mapping itself goes once the recorder is no longer referenced;
+     * nothing may be recorded after this.
+     */
+    void close() {
+        buffer.force();
+    }
+
+    private static int toUsec(long nsec) {
+        return (int) Math.min(nsec / 1000, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return how many records can be read back, oldest first
+     */
+    int size() {
+        // when full, the slot written next may have been torn by a kill
+        return (int) Math.min(count, capacity - 1);
+    }
+
+    /**
+     * @return msec of the wall clock at which the record was written
+     */
+    long getWallTime(int index) {
+        return buffer.getLong(getPosition(index));
+    }
+
+    /**
+     * @return where the first cat was on screen
+     */
+    int getX(int index) {
+        return buffer.getInt(getPosition(index) + 24);
+    }
+
+    int getY(int index) {
+        return buffer.getInt(getPosition(index) + 28);
+    }
+
+    private int getPosition(int index) {
+        long first = count - size();
+        return HEADER_SIZE + (int) ((first + index) % capacity) * RECORD_SIZE;
+    }
+
+    /**
+     * Writes the records as CSV, oldest first.
+     */
+    void dumpCsv(PrintWriter pw) {
+        pw.println("time_ms,dt_us,tick_us,move_us,cats,state,x,y");
+        for (int i = 0, n = size(); i < n; i++) {
+            int pos = getPosition(i);
+            pw.print(buffer.getLong(pos));
+            pw.print(',');
+            pw.print(buffer.getInt(pos + 8));
+            pw.print(',');
+            pw.print(buffer.getInt(pos + 12));
+            pw.print(',');
+            pw.print(buffer.getInt(pos + 16));
+            pw.print(',');
+            pw.print(buffer.getShort(pos + 20));
+            pw.print(',');
+            pw.print(buffer.getShort(pos + 22));
+            pw.print(',');
+            pw.print(buffer.getInt(pos + 24));
+            pw.print(',');
+            pw.println(buffer.getInt(pos + 28));
+        }
+    }
+
+    /**
+     * Writes the records in their binary layout, oldest first and without
+     * the header.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        byte[] record = new byte[RECORD_SIZE];
+        for (int i = 0, n = size(); i < n; i++) {
+            int pos = getPosition(i);
+            for (int j = 0; j < RECORD_SIZE; j++) {
+                record[j] = buffer.get(pos + j);
+            }
+            out.write(record);
+        }
+    }
+}
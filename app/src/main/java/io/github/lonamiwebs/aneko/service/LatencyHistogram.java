@@ -0,0 +1,95 @@
+package io.github.lonamiwebs.aneko.service;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts durations into fixed buckets, each twice as wide as the one
+ * before, so recording one is a few arithmetic operations and never
+ * allocates. Only used from the render thread, so it needs no locks.
+ */
+class LatencyHistogram {
+    private static final int BUCKETS = 24; // [0, 1us), [1, 2us), ..., up to 8 sec
+
+    private final String name;
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total; // nsec
+    private long max; // nsec
+
+    LatencyHistogram(String _name) {
+        name = _name;
+    }
+
+    /**
+     * @param time nsec, taken as 0 if negative
+     */
+    void record(long time) {
+        time = Math.max(time, 0);
+        int bucket = 64 - Long.numberOfLeadingZeros(time / 1000);
+        counts[Math.min(bucket, BUCKETS - 1)]++;
+        count++;
+        total += time;
+        max = Math.max(max, time);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @return usec within which the given fraction of the times fell, as
+     * the upper bound of its bucket
+     */
+    long getPercentile(double fraction) {
+        long wanted = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= wanted) {
+                return 1L << i;
+            }
+        }
+        return max / 1000;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = total = max = 0;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.print("  ");
+        pw.print(name);
+        pw.print(": ");
+        pw.print(count);
+        if (count == 0) {
+            pw.println();
+            return;
+        }
+        pw.print(", avg ");
+        pw.print(total / count / 1000);
+        pw.print("us, p50 <");
+        pw.print(getPercentile(0.5));
+        pw.print("us, p90 <");
+        pw.print(getPercentile(0.9));
+        pw.print("us, p99 <");
+        pw.print(getPercentile(0.99));
+        pw.print("us, max ");
+        pw.print(max / 1000);
+        pw.println("us");
+
+        // the buckets themselves, skipping the empty ones
+        pw.print("   ");
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                pw.print(" <");
+                pw.print(i < BUCKETS - 1 ? (1L << i) + "us" : "inf");
+                pw.print(":");
+                pw.print(counts[i]);
+            }
+        }
+        pw.println();
+    }
+}
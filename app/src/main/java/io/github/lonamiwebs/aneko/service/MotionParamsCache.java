@@ -0,0 +1,99 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.ComponentName;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.github.lonamiwebs.aneko.MotionParams;
+
+/**
+ * Keeps recently loaded skins around, least recently used first out,
+ * bounded by the size of their frames and by count. The cache holds a
+ * reference on every params it keeps, which keeps their atlas pages too.
+ */
+class MotionParamsCache {
+    private static final boolean GINGERBREAD_OR_LATER =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD;
+    private static final int MAX_ENTRIES = 8;
+
+    private final long maxBytes;
+    private long curBytes = 0;
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(4, 0.75f, true);
+
+    private static class Entry {
+        private String packageName;
+        private MotionParams params;
+    }
+
+    MotionParamsCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the key for a skin, which changes whenever its package is
+     * updated so stale params are never returned.
+     */
+    static String getKey(PackageManager pm, ComponentName skinComp)
+            throws PackageManager.NameNotFoundException {
+        PackageInfo pi = pm.getPackageInfo(skinComp.getPackageName(), 0);
+        long updateTime = (GINGERBREAD_OR_LATER ? pi.lastUpdateTime : 0);
+        return skinComp.flattenToString() + '@' + pi.versionCode + '/' + updateTime;
+    }
+
+    MotionParams get(String key) {
+        Entry entry = entries.get(key);
+        return (entry != null ? entry.params : null);
+    }
+
+    void put(String key, String packageName, MotionParams params) {
+        long size = params.getByteCount();
+        if (size > maxBytes) {
+            return;
+        }
+
+        Entry entry = new Entry();
+        entry.packageName = packageName;
+        entry.params = params;
+        params.acquire();
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            curBytes -= old.params.getByteCount();
+            old.params.release();
+        }
+        curBytes += size;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while ((curBytes > maxBytes || entries.size() > MAX_ENTRIES) && it.hasNext()) {
+            MotionParams evicted = it.next().params;
+            curBytes -= evicted.getByteCount();
+            evicted.release();
+            it.remove();
+        }
+    }
+
+    void removePackage(String packageName) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.packageName.equals(packageName)) {
+                curBytes -= entry.params.getByteCount();
+                entry.params.release();
+                it.remove();
+            }
+        }
+    }
+
+    void clear() {
+        for (Entry entry : entries.values()) {
+            entry.params.release();
+        }
+        entries.clear();
+        curBytes = 0;
+    }
+}
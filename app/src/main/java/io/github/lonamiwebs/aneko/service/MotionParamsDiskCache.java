@@ -0,0 +1,136 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.ComponentName;
+import android.content.res.Resources;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import io.github.lonamiwebs.aneko.MotionParams;
+
+/**
+ * Stores compiled skins on disk so that a cold start can skip the skin
+ * XML. Each file starts with the cache key and display density it was
+ * compiled for, and is ignored once either changes.
+ */
+class MotionParamsDiskCache {
+    private static final int MAGIC = 0x414e4b53; // "ANKS"
+    private static final int MAX_KEY_LENGTH = 4096; // bytes, far above any real key
+
+    private final File dir;
+
+    MotionParamsDiskCache(File dir) {
+        this.dir = dir;
+    }
+
+    MotionParams load(Resources res, ComponentName skinComp, String key) {
+        File file = getFile(skinComp);
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (in.getInt() != MAGIC || in.getInt() != MotionParams.COMPILED_VERSION) {
+                return null;
+            }
+            int keyLength = in.getInt();
+            if (keyLength < 0 || keyLength > MAX_KEY_LENGTH || keyLength > in.remaining()) {
+                // a damaged file; allocating the length could throw an Error
+                file.delete();
+                return null;
+            }
+            byte[] fileKey = new byte[keyLength];
+            in.get(fileKey);
+            if (!key.equals(new String(fileKey, "UTF-8")) ||
+                    in.getFloat() != res.getDisplayMetrics().density) {
+                return null;
+            }
+
+            return new MotionParams(res, in);
+        } catch (Exception e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        } finally {
+            close(raf);
+        }
+    }
+
+    void save(Resources res, ComponentName skinComp, String key, MotionParams params) {
+        File file = getFile(skinComp);
+        File tmp = new File(dir, file.getName() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            dir.mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+            byte[] fileKey = key.getBytes("UTF-8");
+            out.writeInt(MAGIC);
+            out.writeInt(MotionParams.COMPILED_VERSION);
+            out.writeInt(fileKey.length);
+            out.write(fileKey);
+            out.writeFloat(res.getDisplayMetrics().density);
+            params.writeTo(out);
+
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            close(out);
+            tmp.delete();
+        }
+    }
+
+    void removePackage(String packageName) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        String prefix = encode(packageName + "/");
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    private File getFile(ComponentName skinComp) {
+        return new File(dir, encode(skinComp.flattenToString()));
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.view.WindowManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Puts the cats on screen, one sprite each. Only used from the render
+ * thread; the thread adding the windows owns them.
+ */
+abstract class OverlayRenderer {
+    static final String RENDERER_WINDOW = "window";
+    static final String RENDERER_CANVAS = "canvas";
+
+    protected final Context context;
+    protected final WindowManager wm;
+
+    private int spriteCount = 0;
+    private Drawable[] drawables = new Drawable[1];
+    private int[] xs = new int[1];
+    private int[] ys = new int[1];
+    private boolean[] moved = new boolean[1];
+
+    private final LatencyHistogram moveTimes = new LatencyHistogram("move");
+    private long moveTime; // nsec spent moving sprites, in total
+
+    OverlayRenderer(Context _context) {
+        context = _context;
+        wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+    }
+
+    static OverlayRenderer create(Context context, String name) {
+        if (RENDERER_CANVAS.equals(name)) {
+            return new CanvasRenderer(context);
+        }
+        return new WindowRenderer(context);
+    }
+
+    abstract String getName();
+
+    /**
+     * Adds the overlay windows.
+     */
+    abstract void attach();
+
+    /**
+     * Removes the overlay windows.
+     */
+    abstract void detach();
+
+    protected abstract void onSpriteAdded(int sprite);
+
+    protected abstract void onSpriteRemoved(int sprite);
+
+    protected abstract void onDrawableChanged(int sprite, Drawable drawable);
+
+    protected abstract void onMove(int sprite, int x, int y);
+
+    int getSpriteCount() {
+        return spriteCount;
+    }
+
+    /**
+     * Adds or removes sprites at the end, so there is one per cat.
+     */
+    void setSpriteCount(int count) {
+        if (count > drawables.length) {
+            Drawable[] ndrawables = new Drawable[count];
+            int[] nxs = new int[count];
+            int[] nys = new int[count];
+            boolean[] nmoved = new boolean[count];
+            System.arraycopy(drawables, 0, ndrawables, 0, spriteCount);
+            System.arraycopy(xs, 0, nxs, 0, spriteCount);
+            System.arraycopy(ys, 0, nys, 0, spriteCount);
+            System.arraycopy(moved, 0, nmoved, 0, spriteCount);
+            drawables = ndrawables;
+            xs = nxs;
+            ys = nys;
+            moved = nmoved;
+        }
+
+        while (spriteCount < count) {
+            onSpriteAdded(spriteCount++);
+        }
+        while (spriteCount > count) {
+            onSpriteRemoved(--spriteCount);
+            drawables[spriteCount] = null;
+            moved[spriteCount] = false;
+        }
+    }
+
+    Drawable getDrawable(int sprite) {
+        return drawables[sprite];
+    }
+
+    void setDrawable(int sprite, Drawable drawable) {
+        drawables[sprite] = drawable;
+        onDrawableChanged(sprite, drawable);
+    }
+
+    int getX(int sprite) {
+        return xs[sprite];
+    }
+
+    int getY(int sprite) {
+        return ys[sprite];
+    }
+
+    /**
+     * Moves the top-left corner of a sprite to the given screen position,
+     * timing how long the backend takes to do so.
+     */
+    void moveTo(int sprite, int x, int y) {
+        if (moved[sprite] && xs[sprite] == x && ys[sprite] == y) {
+            return;
+        }
+        xs[sprite] = x;
+        ys[sprite] = y;
+        moved[sprite] = true;
+
+        long start = System.nanoTime();
+        onMove(sprite, x, y);
+        long time = System.nanoTime() - start;
+        moveTimes.record(time);
+        moveTime += time;
+    }
+
+    /**
+     * @return nsec spent moving sprites since this renderer was created
+     */
+    long getMoveTime() {
+        return moveTime;
+    }
+
+    /**
+     * Moves every sprite of another renderer over to this one.
+     */
+    void copyFrom(OverlayRenderer other) {
+        setSpriteCount(other.getSpriteCount());
+        for (int i = 0; i < spriteCount; i++) {
+            moveTo(i, other.getX(i), other.getY(i));
+            setDrawable(i, other.getDrawable(i));
+        }
+    }
+
+    void resetStats() {
+        moveTimes.reset();
+    }
+
+    /**
+     * Reports the sprites and how long moving them took, which for the
+     * window renderer is the cost of updateViewLayout.
+     */
+    void dump(PrintWriter pw) {
+        pw.print("Renderer: ");
+        pw.print(getName());
+        pw.print(", ");
+        pw.print(spriteCount);
+        pw.println(" sprites");
+        moveTimes.dump(pw);
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.lonamiwebs.aneko.service;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.view.Gravity;
+import android.view.WindowManager;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+
+/**
+ * Shows every cat in a window of its own size, moved around the screen by
+ * relayouting the window.
+ */
+class WindowRenderer extends OverlayRenderer {
+    private boolean attached = false;
+    private ArrayList<ImageView> imageViews = new ArrayList<ImageView>();
+    private ArrayList<WindowManager.LayoutParams> imageParams =
+            new ArrayList<WindowManager.LayoutParams>();
+
+    WindowRenderer(Context context) {
+        super(context);
+    }
+
+    @Override
+    String getName() {
+        return RENDERER_WINDOW;
+    }
+
+    @Override
+    void attach() {
+        attached = true;
+        for (int i = 0; i < getSpriteCount(); i++) {
+            addWindow(i);
+        }
+    }
+
+    @Override
+    void detach() {
+        for (int i = imageViews.size() - 1; i >= 0; i--) {
+            removeWindow(i);
+        }
+        attached = false;
+    }
+
+    @Override
+    protected void onSpriteAdded(int sprite) {
+        if (attached) {
+            addWindow(sprite);
+        }
+    }
+
+    @Override
+    protected void onSpriteRemoved(int sprite) {
+        if (attached) {
+            removeWindow(sprite);
+        }
+    }
+
+    @Override
+    protected void onDrawableChanged(int sprite, Drawable drawable) {
+        if (attached) {
+            imageViews.get(sprite).setImageDrawable(drawable);
+        }
+    }
+
+    @Override
+    protected void onMove(int sprite, int x, int y) {
+        if (!attached) {
+            return;
+        }
+
+        WindowManager.LayoutParams params = imageParams.get(sprite);
+        params.x = x;
+        params.y = y;
+        wm.updateViewLayout(imageViews.get(sprite), params);
+    }
+
+    private void addWindow(int sprite) {
+        ImageView imageView = new ImageView(context);
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.WRAP_CONTENT,
+                WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY,
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE |
+                        WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE |
+                        WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
+                PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.LEFT | Gravity.TOP;
+        params.x = getX(sprite);
+        params.y = getY(sprite);
+        imageView.setImageDrawable(getDrawable(sprite));
+        wm.addView(imageView, params);
+
+        imageViews.add(imageView);
+        imageParams.add(params);
+    }
+
+    private void removeWindow(int sprite) {
+        ImageView imageView = imageViews.remove(sprite);
+        imageParams.remove(sprite);
+        imageView.setImageDrawable(null);
+        wm.removeView(imageView);
+    }
+}
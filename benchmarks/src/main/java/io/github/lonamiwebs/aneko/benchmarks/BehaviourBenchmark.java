@@ -0,0 +1,84 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.aneko.SpatialHash;
+import io.github.lonamiwebs.aneko.Vec2;
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+/**
+ * Picking a target for one neko, among a group of them on the screen.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class BehaviourBenchmark {
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+    private static final int POINTS = 1024; // power of two
+
+    @Param({"closer", "further", "whimsical", "flock"})
+    public String behaviour;
+
+    @Param({"12"})
+    public int nekos;
+
+    private Behaviour target;
+    private SpatialHash grid;
+    private float[] x, y, vx, vy;
+    private float[] touchX, touchY;
+    private final Vec2 out = new Vec2();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        target = Behaviour.fromName(behaviour);
+
+        // nekos bunched up around the middle, as they end up after a touch
+        Random random = new Random(42);
+        x = new float[nekos];
+        y = new float[nekos];
+        vx = new float[nekos];
+        vy = new float[nekos];
+        for (int i = 0; i < nekos; i++) {
+            x[i] = WIDTH / 2 + (float) random.nextGaussian() * 64;
+            y[i] = HEIGHT / 2 + (float) random.nextGaussian() * 64;
+            vx[i] = (float) random.nextGaussian() * 50;
+            vy[i] = (float) random.nextGaussian() * 50;
+        }
+        grid = new SpatialHash(32);
+        grid.setBounds(WIDTH, HEIGHT);
+        grid.build(x, y, vx, vy, nekos);
+
+        touchX = new float[POINTS];
+        touchY = new float[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            touchX[i] = random.nextFloat() * WIDTH;
+            touchY[i] = random.nextFloat() * HEIGHT;
+        }
+    }
+
+    @Benchmark
+    public Vec2 getTargetPosition() {
+        int i = next++ & (POINTS - 1);
+        int self = i % nekos;
+        target.getTargetPosition(touchX[i], touchY[i], x[self], y[self],
+                WIDTH, HEIGHT, grid, self, out);
+        return out;
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.aneko.SpatialHash;
+import io.github.lonamiwebs.aneko.Vec2;
+import io.github.lonamiwebs.aneko.behaviours.BehaviourFlock;
+
+/**
+ * One flocking tick: the neighbour grid is rebuilt, then every neko picks
+ * its target. Neighbours are capped, so the time divided by the nekos
+ * should stay about flat as the group grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class FlockScalingBenchmark {
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int nekos;
+
+    private final BehaviourFlock flock = new BehaviourFlock();
+    private final Vec2 out = new Vec2();
+    private SpatialHash grid;
+    private float[] x, y, vx, vy;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        x = new float[nekos];
+        y = new float[nekos];
+        vx = new float[nekos];
+        vy = new float[nekos];
+        for (int i = 0; i < nekos; i++) {
+            x[i] = random.nextFloat() * WIDTH;
+            y[i] = random.nextFloat() * HEIGHT;
+            vx[i] = (float) random.nextGaussian() * 50;
+            vy[i] = (float) random.nextGaussian() * 50;
+        }
+        grid = new SpatialHash(32);
+        grid.setBounds(WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public float tick() {
+        grid.build(x, y, vx, vy, nekos);
+        float sum = 0;
+        for (int i = 0; i < nekos; i++) {
+            flock.getTargetPosition(WIDTH / 2, HEIGHT / 2, x[i], y[i],
+                    WIDTH, HEIGHT, grid, i, out);
+            sum += out.x;
+        }
+        return sum;
+    }
+}
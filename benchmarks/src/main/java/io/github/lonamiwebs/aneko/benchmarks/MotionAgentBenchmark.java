@@ -0,0 +1,78 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.aneko.MotionAgent;
+import io.github.lonamiwebs.aneko.MotionGraph;
+import io.github.lonamiwebs.aneko.PhysicsBatch;
+
+/**
+ * The per-step work of a single neko, which runs for every cat on every
+ * physics step.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class MotionAgentBenchmark {
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+
+    private PhysicsBatch batch;
+    private MotionAgent agent;
+    private MotionGraph graph;
+    private int stopState;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        graph = Skins.neko();
+        batch = new PhysicsBatch();
+        agent = new MotionAgent(batch);
+        agent.setDisplay(WIDTH, HEIGHT);
+        agent.setGraph(graph);
+        agent.setAnimating(true);
+        stopState = graph.getInitialState();
+    }
+
+    @Benchmark
+    public int updateState() {
+        // cycle through every event the batch reports
+        int slot = agent.getSlot();
+        batch.events[slot] = (step++ & 3);
+        batch.velX[slot] = (step & 4) != 0 ? 10 : -10;
+        agent.updateState();
+        return agent.getState();
+    }
+
+    @Benchmark
+    public boolean checkWall() {
+        // stop next to the left wall, so the wall state is taken each time
+        agent.changeState(stopState);
+        agent.setPosition(4, HEIGHT / 2);
+        return agent.checkWall();
+    }
+
+    @Benchmark
+    public int changeToMovingState() {
+        // turn around the eight directions
+        int slot = agent.getSlot();
+        double angle = (step++ & 7) * Math.PI / 4;
+        batch.velX[slot] = (float) Math.cos(angle) * 100;
+        batch.velY[slot] = (float) Math.sin(angle) * 100;
+        agent.changeToMovingState();
+        return agent.getState();
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.aneko.MotionGraph;
+import io.github.lonamiwebs.aneko.MotionTrace;
+
+/**
+ * Replays a motion trace: an hour of a few nekos chasing touches, or a
+ * trace recorded on a device, given to JMH as -jvmArgsAppend -Dtrace=path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+@State(Scope.Thread)
+public class ReplayBenchmark {
+    private static final long SEC = 1000000000L;
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+    private static final String[] BEHAVIOURS = {"closer", "further", "whimsical", "flock"};
+
+    @Param({"4"})
+    public int nekos;
+
+    private byte[] trace;
+
+    @Setup
+    public void setUp() throws IOException {
+        String path = System.getProperty("trace");
+        trace = (path != null ? readFile(new File(path)) : record(nekos));
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        return MotionTrace.replay(new ByteArrayInputStream(trace), 10 * SEC).getHash();
+    }
+
+    private static byte[] record(int nekos) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MotionTrace.Recorder recorder = new MotionTrace.Recorder(out, WIDTH, HEIGHT, SEC / 60, 1);
+        MotionGraph graph = Skins.neko();
+        Random random = new Random(42);
+        for (int i = 0; i < nekos; i++) {
+            recorder.recordAdd(0, graph, BEHAVIOURS[i % BEHAVIOURS.length], random.nextLong(),
+                    random.nextInt(WIDTH), random.nextInt(HEIGHT), WIDTH / 2, HEIGHT / 2);
+        }
+
+        long time = 0;
+        while (time < 3600 * SEC) {
+            time += (long) (random.nextFloat() * 20 * SEC);
+            if (random.nextInt(10) == 0) {
+                recorder.recordStop(time);
+            } else {
+                recorder.recordTarget(time, random.nextInt(WIDTH), random.nextInt(HEIGHT));
+            }
+        }
+        recorder.finish(time);
+        recorder.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
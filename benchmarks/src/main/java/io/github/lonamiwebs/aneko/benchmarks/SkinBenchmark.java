@@ -0,0 +1,31 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.aneko.MotionGraph;
+import io.github.lonamiwebs.aneko.SkinXml;
+
+/**
+ * Loading the bundled skin: parsing its XML, flattening its motions into
+ * timelines and resolving its states. The frame sizes are read from the
+ * PNG headers rather than decoded, as on the JVM there is nothing to draw.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class SkinBenchmark {
+    @Benchmark
+    public MotionGraph loadSkin() {
+        return SkinXml.load(Skins.RES, "neko");
+    }
+}
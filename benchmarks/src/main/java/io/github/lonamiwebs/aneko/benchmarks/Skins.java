@@ -0,0 +1,38 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import java.io.File;
+
+import io.github.lonamiwebs.aneko.MotionGraph;
+import io.github.lonamiwebs.aneko.SkinXml;
+import io.github.lonamiwebs.aneko.Timeline;
+
+/**
+ * The skins bundled with the app, read from its sources, and timelines
+ * shaped to stress one part of playing them.
+ */
+final class Skins {
+    // benchmarks run from the benchmarks module directory
+    static final File RES = new File("../app/src/main/res");
+
+    private Skins() {
+    }
+
+    static MotionGraph neko() {
+        return SkinXml.load(RES, "neko");
+    }
+
+    /**
+     * @param depth how many repeat-items are nested, each playing what it
+     *              holds twice around a frame of its own
+     */
+    static Timeline nested(int depth) {
+        Timeline.Builder builder = new Timeline.Builder();
+        for (int i = 0; i < depth; i++) {
+            builder.beginRepeat().addFrame(i, 100);
+        }
+        for (int i = 0; i < depth; i++) {
+            builder.endRepeat(2, -1);
+        }
+        return builder.build(-1);
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.lonamiwebs.aneko.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.lonamiwebs.aneko.Timeline;
+
+/**
+ * The lookups MotionDrawable.updateFrame does on every frame change: the
+ * segment shown now and when it ends, on motions of nested repeat-items.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class TimelineBenchmark {
+    @Param({"1", "4", "8", "12"})
+    public int depth;
+
+    private Timeline timeline;
+    private long time;
+    private long length;
+
+    @Setup
+    public void setUp() {
+        timeline = Skins.nested(depth);
+        int last = timeline.getSegmentCount() - 1;
+        length = timeline.getStart(last) + timeline.getDuration(last);
+    }
+
+    @Benchmark
+    public long updateFrame() {
+        // walk the motion a frame change at a time, as playing it does
+        time = (time + 37) % length;
+        int segment = timeline.findSegment(time);
+        return segment + timeline.getSegmentEnd(time);
+    }
+}
@@ -0,0 +1,258 @@
+package io.github.lonamiwebs.aneko;
+
+/**
+ * A single monotonic clock and deadline queue for everything that animates,
+ * so frame changes and movement share wakeups instead of each posting their
+ * own messages. Whoever drives the clock calls {@link #tick} when woken up,
+ * and is told through a {@link WakeupListener} when the next deadline moves.
+ * Time comes from a {@link Clock}, so a {@link VirtualClock} can drive it
+ * without waiting.
+ */
+public class AnimationClock {
+    public interface WakeupListener {
+        /**
+         * @param deadline nsec of the earliest timer, or -1 if there is none
+         */
+        public void onWakeupChanged(long deadline);
+    }
+
+    public interface TimerObserver {
+        /**
+         * Called right before a timer runs.
+         * @param lateness nsec from its deadline to the tick running it,
+         *                 negative if run early within the slack
+         */
+        public void onTimerRun(Timer timer, long lateness);
+    }
+
+    public static abstract class Timer {
+        private final int cause;
+        private int index = -1;
+        private long deadline;
+
+        public Timer() {
+            this(WakeupStats.CAUSE_OTHER);
+        }
+
+        /**
+         * @param _cause the {@link WakeupStats} cause of the wakeups this
+         *               timer is the first to run in
+         */
+        public Timer(int _cause) {
+            cause = _cause;
+        }
+
+        public int getCause() {
+            return cause;
+        }
+
+        /**
+         * @param now nsec this timer fires at, never before its deadline
+         */
+        public abstract void onTimer(long now);
+
+        public boolean isScheduled() {
+            return index >= 0;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final Clock source;
+    private Timer[] heap = new Timer[16];
+    private int size = 0;
+    private long tickTime = -1;
+    private WakeupListener listener;
+    private TimerObserver observer;
+    private WakeupStats wakeups;
+
+    public AnimationClock() {
+        this(Clock.SYSTEM);
+    }
+
+    public AnimationClock(Clock _source) {
+        source = _source;
+    }
+
+    public Clock getSource() {
+        return source;
+    }
+
+    public void setWakeupListener(WakeupListener _listener) {
+        listener = _listener;
+    }
+
+    /**
+     * @param _observer told about every timer run, e.g. to measure how
+     *                  late they fire, or null
+     */
+    public void setTimerObserver(TimerObserver _observer) {
+        observer = _observer;
+    }
+
+    /**
+     * @param stats counts every tick as a wakeup, or null
+     */
+    public void setWakeupStats(WakeupStats stats) {
+        wakeups = stats;
+    }
+
+    public WakeupStats getWakeupStats() {
+        return wakeups;
+    }
+
+    /**
+     * @return the current time in nsec; while ticking, the time the timer
+     * being run fires at, so timers firing together agree on it
+     */
+    public long now() {
+        return (tickTime >= 0 ? tickTime : source.nanoTime());
+    }
+
+    public boolean isTicking() {
+        return tickTime >= 0;
+    }
+
+    public int getTimerCount() {
+        return size;
+    }
+
+    /**
+     * @return nsec of the earliest deadline, or -1 if nothing is scheduled
+     */
+    public long getNextDeadline() {
+        return (size > 0 ? heap[0].deadline : -1);
+    }
+
+    /**
+     * Schedules the timer at the given time, moving it if already scheduled.
+     */
+    public void schedule(Timer timer, long when) {
+        long next = getNextDeadline();
+        if (timer.index >= 0) {
+            long old = timer.deadline;
+            timer.deadline = when;
+            if (when < old) {
+                siftUp(timer.index);
+            } else {
+                siftDown(timer.index);
+            }
+        } else {
+            if (size == heap.length) {
+                Timer[] nheap = new Timer[size * 2];
+                System.arraycopy(heap, 0, nheap, 0, size);
+                heap = nheap;
+            }
+            timer.deadline = when;
+            timer.index = size;
+            heap[size++] = timer;
+            siftUp(timer.index);
+        }
+        notifyIfChanged(next);
+    }
+
+    public void cancel(Timer timer) {
+        if (timer.index < 0) {
+            return;
+        }
+
+        long next = getNextDeadline();
+        removeAt(timer.index);
+        notifyIfChanged(next);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i].index = -1;
+            heap[i] = null;
+        }
+        size = 0;
+        notifyIfChanged(-2);
+    }
+
+    /**
+     * Runs every timer due by now plus the given slack, in deadline order.
+     * Timers due within the slack run early, so events falling within the
+     * same frame share a single wakeup.
+     */
+    public void tick(long now, long slack) {
+        if (wakeups != null) {
+            wakeups.record(size > 0 && heap[0].deadline <= now + slack ?
+                    heap[0].cause : WakeupStats.CAUSE_NONE);
+        }
+        try {
+            while (size > 0 && heap[0].deadline <= now + slack) {
+                Timer timer = heap[0];
+                removeAt(0);
+                if (observer != null) {
+                    observer.onTimerRun(timer, now - timer.deadline);
+                }
+                tickTime = Math.max(now, timer.deadline);
+                timer.onTimer(tickTime);
+            }
+        } finally {
+            tickTime = -1;
+        }
+    }
+
+    private void notifyIfChanged(long oldNext) {
+        long next = getNextDeadline();
+        if (listener != null && !isTicking() && next != oldNext) {
+            listener.onWakeupChanged(next);
+        }
+    }
+
+    private void removeAt(int index) {
+        Timer timer = heap[index];
+        timer.index = -1;
+        size--;
+        if (index != size) {
+            Timer moved = heap[size];
+            heap[index] = moved;
+            moved.index = index;
+            heap[size] = null;
+            siftDown(index);
+            siftUp(moved.index);
+        } else {
+            heap[size] = null;
+        }
+    }
+
+    private void siftUp(int index) {
+        Timer timer = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].deadline <= timer.deadline) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = timer;
+        timer.index = index;
+    }
+
+    private void siftDown(int index) {
+        Timer timer = heap[index];
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].deadline < heap[child].deadline) {
+                child++;
+            }
+            if (heap[child].deadline >= timer.deadline) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = timer;
+        timer.index = index;
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.lonamiwebs.aneko;
+
+/**
+ * Source of monotonic time for the engine.
+ */
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return the current time in nsec, never going backwards
+     */
+    public long nanoTime();
+}
@@ -0,0 +1,310 @@
+package io.github.lonamiwebs.aneko;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+/**
+ * The state machine of a single neko: which state it is in and where it
+ * is going. Its position and velocity live in a slot of a shared
+ * {@link PhysicsBatch}, and nothing here draws, so it runs the same on a
+ * device and on a plain JVM.
+ */
+public class MotionAgent {
+    private static final MotionGraph.MoveDirection[] MOVE_DIRECTIONS = {
+            MotionGraph.MoveDirection.RIGHT,
+            MotionGraph.MoveDirection.DOWN_RIGHT,
+            MotionGraph.MoveDirection.DOWN,
+            MotionGraph.MoveDirection.DOWN_LEFT,
+            MotionGraph.MoveDirection.LEFT,
+            MotionGraph.MoveDirection.UP_LEFT,
+            MotionGraph.MoveDirection.UP,
+            MotionGraph.MoveDirection.UP_RIGHT
+    };
+
+    protected final PhysicsBatch batch; // holds the position, velocity and state
+    protected int slot; // of this neko in the batch
+    protected SpatialHash neighbours; // every neko by slot, when there are several
+
+    protected int displayWidth = 1, displayHeight = 1; // screen dimensions
+
+    protected MotionGraph graph;
+    protected Behaviour behaviour = Behaviour.fromIndex(0);
+
+    private boolean stateChanged = false;
+    private boolean positionMoved = false;
+    private boolean animating = false;
+
+    private final Vec2 newTarget = new Vec2();
+    private float goalX, goalY; // last point asked for, before the behaviour
+
+    public MotionAgent(PhysicsBatch _batch) {
+        batch = _batch;
+        slot = batch.add();
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Follows the agent that {@link PhysicsBatch#remove} moved into the
+     * slot of another.
+     */
+    public void setSlot(int _slot) {
+        slot = _slot;
+    }
+
+    public MotionGraph getGraph() {
+        return graph;
+    }
+
+    public Behaviour getBehaviour() {
+        return behaviour;
+    }
+
+    public void setNeighbours(SpatialHash _neighbours) {
+        neighbours = _neighbours;
+    }
+
+    public int getState() {
+        return batch.states[slot];
+    }
+
+    public float getX() {
+        return batch.x[slot];
+    }
+
+    public float getY() {
+        return batch.y[slot];
+    }
+
+    public float getTargetX() {
+        return batch.targetX[slot];
+    }
+
+    public float getTargetY() {
+        return batch.targetY[slot];
+    }
+
+    public boolean isAnimating() {
+        return animating;
+    }
+
+    public void setAnimating(boolean _animating) {
+        animating = _animating;
+        batch.active[slot] = _animating;
+    }
+
+    /**
+     * Applies the outcome of the last {@link PhysicsBatch#step} of this neko.
+     */
+    public void updateState() {
+        stateChanged = false;
+        positionMoved = false;
+
+        switch (batch.events[slot]) {
+            case PhysicsBatch.EVENT_ARRIVED:
+                changeState(graph.getInitialState());
+                break;
+
+            case PhysicsBatch.EVENT_AWAKE: {
+                int nstate = graph.getAwakeState();
+                if (graph.hasState(nstate)) {
+                    changeState(nstate);
+                }
+                break;
+            }
+
+            case PhysicsBatch.EVENT_MOVED:
+                positionMoved = true;
+                changeToMovingState();
+                break;
+        }
+    }
+
+    public boolean checkWall() {
+        if (!graph.needCheckWall(getState())) {
+            return false;
+        }
+
+        float dw2 = getSpriteWidth() / 2f;
+        float dh2 = getSpriteHeight() / 2f;
+
+        MotionGraph.WallDirection dir;
+        float curX = batch.x[slot];
+        float curY = batch.y[slot];
+        float nx = curX;
+        float ny = curY;
+        if (curX >= 0 && curX < dw2) {
+            nx = dw2;
+            dir = MotionGraph.WallDirection.LEFT;
+        } else if (curX <= displayWidth && curX > displayWidth - dw2) {
+            nx = displayWidth - dw2;
+            dir = MotionGraph.WallDirection.RIGHT;
+        } else if (curY >= 0 && curY < dh2) {
+            ny = dh2;
+            dir = MotionGraph.WallDirection.UP;
+        } else if (curY <= displayHeight && curY > displayHeight - dh2) {
+            ny = displayHeight - dh2;
+            dir = MotionGraph.WallDirection.DOWN;
+        } else {
+            return false;
+        }
+
+        int nstate = graph.getWallState(dir);
+        if (!graph.hasState(nstate)) {
+            return false;
+        }
+
+        // another neko is already at that spot of the wall
+        if (neighbours != null &&
+                neighbours.nearest(nx, ny, Math.min(dw2, dh2), slot) >= 0) {
+            return false;
+        }
+
+        batch.x[slot] = batch.targetX[slot] = batch.prevX[slot] = nx;
+        batch.y[slot] = batch.targetY[slot] = batch.prevY[slot] = ny;
+        changeState(nstate);
+
+        return true;
+    }
+
+    public boolean updateMovingState() {
+        if (!graph.needCheckMove(getState())) {
+            return false;
+        }
+
+        float dx = batch.targetX[slot] - batch.x[slot];
+        float dy = batch.targetY[slot] - batch.y[slot];
+        float len = (float) Math.sqrt(dx * dx + dy * dy);
+        if (len <= graph.getProximityDistance()) {
+            return false;
+        }
+
+        changeToMovingState();
+        return true;
+    }
+
+    public void setGraph(MotionGraph _graph) {
+        graph = _graph;
+        batch.setPhysics(slot, graph.getAcceleration(), graph.getMaxVelocity(),
+                graph.getDeaccelerationDistance(), graph.getProximityDistance());
+
+        // ids are only meaningful within the graph they came from
+        batch.states[slot] = MotionGraph.STATE_NONE;
+        changeState(graph.getInitialState());
+        batch.moving[slot] = false;
+    }
+
+    public void changeState(int state) {
+        if (state == getState()) {
+            return;
+        }
+
+        batch.states[slot] = state;
+        batch.moving[slot] = false;
+        stateChanged = true;
+        onStateChanged();
+    }
+
+    /**
+     * Called after the state changed, e.g. to switch what is shown.
+     */
+    protected void onStateChanged() {
+    }
+
+    public boolean changeToNextState() {
+        int nextState = graph.getNextState(getState());
+        if (nextState == MotionGraph.STATE_NONE) {
+            return false;
+        }
+
+        changeState(nextState);
+        return true;
+    }
+
+    public void changeToMovingState() {
+        int dir = PhysicsBatch.getDirection(batch.velX[slot], batch.velY[slot]);
+
+        int nstate = graph.getMoveState(MOVE_DIRECTIONS[dir]);
+        if (!graph.hasState(nstate)) {
+            return;
+        }
+
+        changeState(nstate);
+        batch.moving[slot] = true;
+    }
+
+    /**
+     * Drops the batch slot of this neko.
+     * @return the old slot of the agent moved into this neko's slot, or -1
+     */
+    public int release() {
+        return batch.remove(slot);
+    }
+
+    public void setBehaviour(Behaviour b) {
+        behaviour = b;
+    }
+
+    public void setDisplay(int width, int height) {
+        displayWidth = width;
+        displayHeight = height;
+    }
+
+    public void setPosition(float x, float y) {
+        batch.x[slot] = batch.prevX[slot] = x;
+        batch.y[slot] = batch.prevY[slot] = y;
+    }
+
+    public void setTarget(float x, float y) {
+        batch.targetX[slot] = x;
+        batch.targetY[slot] = y;
+    }
+
+    public void setTargetPosition(float x, float y) {
+        goalX = x;
+        goalY = y;
+        if (neighbours != null) {
+            behaviour.getTargetPosition(x, y, batch.x[slot], batch.y[slot],
+                    displayWidth, displayHeight, neighbours, slot, newTarget);
+        } else {
+            behaviour.getTargetPosition(x, y, batch.x[slot], batch.y[slot],
+                    displayWidth, displayHeight, newTarget);
+        }
+        setTarget(newTarget.x, newTarget.y);
+    }
+
+    /**
+     * Asks the behaviour again for the last point while moving, if where
+     * it goes depends on where the other nekos went.
+     */
+    public void followNeighbours() {
+        if (neighbours != null && batch.moving[slot] && behaviour.followsNeighbours()) {
+            setTargetPosition(goalX, goalY);
+        }
+    }
+
+    public void forceStop() {
+        setTargetPosition(batch.x[slot], batch.y[slot]);
+        batch.velX[slot] = batch.velY[slot] = 0;
+    }
+
+    public boolean isStateChanged() {
+        return stateChanged;
+    }
+
+    public boolean isPositionMoved() {
+        return positionMoved;
+    }
+
+    /**
+     * @return px, of what is shown for the current state
+     */
+    protected int getSpriteWidth() {
+        return graph.getSpriteWidth(getState());
+    }
+
+    protected int getSpriteHeight() {
+        return graph.getSpriteHeight(getState());
+    }
+}
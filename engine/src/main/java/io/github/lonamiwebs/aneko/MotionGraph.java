@@ -0,0 +1,286 @@
+package io.github.lonamiwebs.aneko;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The states a neko goes through and how it moves, without anything to
+ * draw. States are dense ids from 0, and every reference between them is
+ * resolved up front.
+ */
+public interface MotionGraph {
+    public static final int STATE_NONE = -1;
+
+    public enum MoveDirection {
+        UP, DOWN, LEFT, RIGHT, UP_LEFT, UP_RIGHT, DOWN_LEFT, DOWN_RIGHT
+    }
+
+    public enum WallDirection {
+        UP, DOWN, LEFT, RIGHT
+    }
+
+    public float getAcceleration();
+
+    public float getMaxVelocity();
+
+    public float getDeaccelerationDistance();
+
+    public float getProximityDistance();
+
+    public boolean hasState(int state);
+
+    public int getStateCount();
+
+    public String getStateName(int state);
+
+    public int getInitialState();
+
+    public int getAwakeState();
+
+    public int getMoveState(MoveDirection dir);
+
+    public int getWallState(WallDirection dir);
+
+    public int getNextState(int state);
+
+    public boolean needCheckMove(int state);
+
+    public boolean needCheckWall(int state);
+
+    /**
+     * @return when the frames of the state change, or null if unknown
+     */
+    public Timeline getTimeline(int state);
+
+    /**
+     * @return px, of the first frame of the state
+     */
+    public int getSpriteWidth(int state);
+
+    public int getSpriteHeight(int state);
+
+    /**
+     * Builds a graph in code, e.g. to simulate nekos without a skin.
+     * States are referred to by name until {@link #build}.
+     */
+    public static class Builder {
+        private float acceleration = 160;
+        private float maxVelocity = 100;
+        private float deaccelerationDistance = 100;
+        private float proximityDistance = 10;
+
+        private final ArrayList<State> states = new ArrayList<State>();
+        private String initialName = "stop";
+        private String awakeName = "awake";
+        private final String[] moveNames = new String[MoveDirection.values().length];
+        private final String[] wallNames = new String[WallDirection.values().length];
+
+        public Builder setPhysics(float _acceleration, float _maxVelocity,
+                                  float _deaccelerationDistance, float _proximityDistance) {
+            acceleration = _acceleration;
+            maxVelocity = _maxVelocity;
+            deaccelerationDistance = _deaccelerationDistance;
+            proximityDistance = _proximityDistance;
+            return this;
+        }
+
+        /**
+         * @param nextState name of the state following this one, or null
+         */
+        public Builder addState(String name, Timeline timeline, String nextState,
+                                boolean checkMove, boolean checkWall,
+                                int width, int height) {
+            State state = new State();
+            state.name = name;
+            state.nextStateName = nextState;
+            state.timeline = timeline;
+            state.checkMove = checkMove;
+            state.checkWall = checkWall;
+            state.width = width;
+            state.height = height;
+            states.add(state);
+            return this;
+        }
+
+        public Builder setInitialState(String name) {
+            initialName = name;
+            return this;
+        }
+
+        public Builder setAwakeState(String name) {
+            awakeName = name;
+            return this;
+        }
+
+        public Builder setMoveState(MoveDirection dir, String name) {
+            moveNames[dir.ordinal()] = name;
+            return this;
+        }
+
+        public Builder setWallState(WallDirection dir, String name) {
+            wallNames[dir.ordinal()] = name;
+            return this;
+        }
+
+        public MotionGraph build() {
+            HashMap<String, Integer> ids = new HashMap<String, Integer>();
+            for (int i = 0; i < states.size(); i++) {
+                if (ids.put(states.get(i).name, i) != null) {
+                    throw new IllegalArgumentException(
+                            "duplicate state: " + states.get(i).name);
+                }
+            }
+
+            Table table = new Table();
+            table.acceleration = acceleration;
+            table.maxVelocity = maxVelocity;
+            table.deaccelerationDistance = deaccelerationDistance;
+            table.proximityDistance = proximityDistance;
+            table.states = states.toArray(new State[states.size()]);
+            for (State state : table.states) {
+                state.nextState = (state.nextStateName != null ?
+                        find(ids, state.nextStateName, true) : STATE_NONE);
+            }
+
+            // a chain of nextState can only be as long as the number of states
+            for (State start : table.states) {
+                int state = start.nextState;
+                for (int steps = 0; state != STATE_NONE; steps++) {
+                    if (steps >= table.states.length) {
+                        throw new IllegalArgumentException(
+                                "nextState cycle from: " + start.name);
+                    }
+                    state = table.states[state].nextState;
+                }
+            }
+
+            table.initialState = find(ids, initialName, true);
+            table.awakeState = find(ids, awakeName, false);
+            table.moveStates = new int[moveNames.length];
+            for (int i = 0; i < moveNames.length; i++) {
+                table.moveStates[i] = find(ids, moveNames[i], false);
+            }
+            table.wallStates = new int[wallNames.length];
+            for (int i = 0; i < wallNames.length; i++) {
+                table.wallStates[i] = find(ids, wallNames[i], false);
+            }
+            return table;
+        }
+
+        private static int find(HashMap<String, Integer> ids, String name, boolean required) {
+            Integer id = (name != null ? ids.get(name) : null);
+            if (id == null && required) {
+                throw new IllegalArgumentException("state does not exist: " + name);
+            }
+            return (id != null ? id : STATE_NONE);
+        }
+    }
+
+    static class State {
+        private String name;
+        private String nextStateName;
+        private int nextState;
+        private Timeline timeline;
+        private boolean checkMove;
+        private boolean checkWall;
+        private int width;
+        private int height;
+    }
+
+    static class Table implements MotionGraph {
+        private float acceleration;
+        private float maxVelocity;
+        private float deaccelerationDistance;
+        private float proximityDistance;
+        private State[] states;
+        private int initialState;
+        private int awakeState;
+        private int[] moveStates;
+        private int[] wallStates;
+
+        @Override
+        public float getAcceleration() {
+            return acceleration;
+        }
+
+        @Override
+        public float getMaxVelocity() {
+            return maxVelocity;
+        }
+
+        @Override
+        public float getDeaccelerationDistance() {
+            return deaccelerationDistance;
+        }
+
+        @Override
+        public float getProximityDistance() {
+            return proximityDistance;
+        }
+
+        @Override
+        public boolean hasState(int state) {
+            return state >= 0 && state < states.length;
+        }
+
+        @Override
+        public int getStateCount() {
+            return states.length;
+        }
+
+        @Override
+        public String getStateName(int state) {
+            return (hasState(state) ? states[state].name : null);
+        }
+
+        @Override
+        public int getInitialState() {
+            return initialState;
+        }
+
+        @Override
+        public int getAwakeState() {
+            return awakeState;
+        }
+
+        @Override
+        public int getMoveState(MoveDirection dir) {
+            return moveStates[dir.ordinal()];
+        }
+
+        @Override
+        public int getWallState(WallDirection dir) {
+            return wallStates[dir.ordinal()];
+        }
+
+        @Override
+        public int getNextState(int state) {
+            return (hasState(state) ? states[state].nextState : STATE_NONE);
+        }
+
+        @Override
+        public boolean needCheckMove(int state) {
+            return (hasState(state) && states[state].checkMove);
+        }
+
+        @Override
+        public boolean needCheckWall(int state) {
+            return (hasState(state) && states[state].checkWall);
+        }
+
+        @Override
+        public Timeline getTimeline(int state) {
+            return (hasState(state) ? states[state].timeline : null);
+        }
+
+        @Override
+        public int getSpriteWidth(int state) {
+            return (hasState(state) ? states[state].width : -1);
+        }
+
+        @Override
+        public int getSpriteHeight(int state) {
+            return (hasState(state) ? states[state].height : -1);
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package io.github.lonamiwebs.aneko;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+/**
+ * Runs nekos: physics steps at a fixed rate, and frames change and motions
+ * end as their {@link Timeline} says, all scheduled on an
+ * {@link AnimationClock}. The service drives its cats through this, only
+ * drawing what it is told; driven by a {@link VirtualClock}, hours of
+ * motion play in as long as the steps take to compute.
+ * <p>
+ * Steps and motion ends happen at their nominal times, whenever the clock
+ * gets to run them, in a fixed order, and whatever changes the nekos is
+ * applied after everything due by then. So the same inputs at the same
+ * times play the same run, which is what a {@link MotionTrace} records.
+ */
+public class MotionSimulation {
+    public interface Listener {
+        /**
+         * Called after every physics step.
+         */
+        public void onStep(MotionSimulation sim);
+
+        /**
+         * Called after the state of a neko changed, e.g. to switch what is
+         * shown.
+         */
+        public void onStateChanged(Agent agent);
+    }
+
+    private static final float DEF_SPRITE_SIZE = 32; // px, the smallest grid cell
+    private static final long MAX_STEP_LAG = 1000000000L; // nsec
+
+    private final AnimationClock clock;
+    private final PhysicsBatch batch = new PhysicsBatch();
+    private final SpatialHash grid = new SpatialHash(DEF_SPRITE_SIZE);
+    private final int[] neighbourScratch = new int[16];
+    private final ArrayList<Agent> agents = new ArrayList<Agent>();
+    private long stepInterval; // nsec
+    private int displayWidth, displayHeight;
+
+    private Listener listener;
+    private MotionTrace.Recorder recorder; // while recording
+    private boolean animating;
+    private long nextStepTime; // nsec
+    private long stepCount;
+    private long eventTime = -1; // nsec of the step or motion end running, if any
+    private long lastTime; // nsec of the last step, motion end or input
+    private long skipTime = -1, skipTo; // nsec, a recorded stall to replay
+    private final AnimationClock.Timer stepTimer =
+            new AnimationClock.Timer(WakeupStats.CAUSE_MOVEMENT) {
+        @Override
+        public void onTimer(long now) {
+            runEvents(now);
+        }
+    };
+    private final AnimationClock.Timer endTimer =
+            new AnimationClock.Timer(WakeupStats.CAUSE_FRAME) {
+        @Override
+        public void onTimer(long now) {
+            runEvents(now);
+        }
+    };
+
+    /**
+     * A neko of a simulation. Subclasses add what is needed to show it.
+     */
+    public static class Agent extends MotionAgent {
+        private final MotionSimulation sim;
+        private long stateStart; // nsec
+        private long motionEnd = -1; // nsec, -1 if the motion never ends
+        private long behaviourSeed;
+        private final AnimationClock.Timer frameTimer =
+                new AnimationClock.Timer(WakeupStats.CAUSE_FRAME) {
+            @Override
+            public void onTimer(long now) {
+                updateFrame(now);
+            }
+        };
+
+        public Agent(MotionSimulation _sim) {
+            super(_sim.batch);
+            sim = _sim;
+        }
+
+        /**
+         * @return nsec at which the current state started
+         */
+        public long getStateStart() {
+            return stateStart;
+        }
+
+        @Override
+        protected void onStateChanged() {
+            sim.clock.cancel(frameTimer);
+            stateStart = sim.getTime();
+            Timeline timeline = graph.getTimeline(getState());
+            long end = (timeline != null ? timeline.getEndTime() : -1);
+            motionEnd = (end >= 0 ? stateStart + end * 1000000 : -1);
+            if (sim.listener != null) {
+                sim.listener.onStateChanged(this);
+            }
+            updateFrame(stateStart);
+            if (sim.eventTime < 0) {
+                sim.scheduleTimers();
+            }
+        }
+
+        @Override
+        public int release() {
+            sim.clock.cancel(frameTimer);
+            return super.release();
+        }
+
+        /**
+         * Wakes up for every frame change, as a drawable showing the
+         * motion would. Only the end of the motion changes anything, and
+         * the simulation runs that itself.
+         */
+        private void updateFrame(long now) {
+            Timeline timeline = graph.getTimeline(getState());
+            if (timeline == null) {
+                return;
+            }
+
+            long end = timeline.getSegmentEnd(Math.max(now - stateStart, 0) / 1000000);
+            if (end >= 0 && stateStart + end * 1000000 != motionEnd) {
+                sim.clock.schedule(frameTimer, stateStart + end * 1000000);
+            }
+        }
+    }
+
+    /**
+     * @param _stepInterval nsec between physics steps
+     */
+    public MotionSimulation(AnimationClock _clock, int _displayWidth, int _displayHeight,
+                            long _stepInterval) {
+        clock = _clock;
+        displayWidth = _displayWidth;
+        displayHeight = _displayHeight;
+        grid.setBounds(displayWidth, displayHeight);
+        setStepInterval(_stepInterval);
+    }
+
+    public AnimationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return nsec the simulation is at: the nominal time of the step or
+     * motion end running, and otherwise the clock's, never going back
+     */
+    public long getTime() {
+        return (eventTime >= 0 ? eventTime : Math.max(clock.now(), lastTime));
+    }
+
+    public int getAgentCount() {
+        return agents.size();
+    }
+
+    public MotionAgent getAgent(int index) {
+        return agents.get(index);
+    }
+
+    /**
+     * @return how many physics steps ran so far
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    public long getStepInterval() {
+        return stepInterval;
+    }
+
+    /**
+     * @param _stepInterval nsec between physics steps, from the next one on;
+     *                      a trace being recorded keeps the old one
+     */
+    public void setStepInterval(long _stepInterval) {
+        if (_stepInterval <= 0) {
+            throw new IllegalArgumentException(
+                    "step interval must be positive: " + _stepInterval);
+        }
+        stepInterval = _stepInterval;
+    }
+
+    /**
+     * @param _listener told about steps and state changes, or null
+     */
+    public void setListener(Listener _listener) {
+        listener = _listener;
+    }
+
+    public boolean isAnimating() {
+        return animating;
+    }
+
+    /**
+     * @return how much of the step running up to the given time has
+     * passed, from 0 to 1, to draw between the last two positions
+     */
+    public float getStepFraction(long now) {
+        if (!animating) {
+            return 1;
+        }
+        return 1 - Math.min(Math.max((float) (nextStepTime - now) / stepInterval, 0), 1);
+    }
+
+    /**
+     * Records everything that steers the nekos from now on, as a
+     * {@link MotionTrace}, until {@link #stopRecording}. Nekos added
+     * before are not in it.
+     * @param density of the display, which the graphs are scaled to
+     */
+    public void startRecording(OutputStream out, float density) throws IOException {
+        stopRecording();
+        recorder = new MotionTrace.Recorder(out, displayWidth, displayHeight,
+                stepInterval, density);
+    }
+
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Ends the trace being recorded, if any, after everything due by now,
+     * and closes its stream.
+     */
+    public void stopRecording() {
+        if (recorder == null) {
+            return;
+        }
+        long time = beginInput();
+        if (recorder == null) {
+            return;
+        }
+
+        try {
+            recorder.finish(time);
+            recorder.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        recorder = null;
+    }
+
+    public MotionAgent addAgent(MotionGraph graph, Behaviour behaviour, float x, float y) {
+        Agent agent = new Agent(this);
+        agent.setBehaviour(behaviour);
+        agent.setGraph(graph);
+        agent.setPosition(x, y);
+        agent.setTarget(x, y);
+        addAgent(agent);
+        return agent;
+    }
+
+    /**
+     * Starts stepping an agent made for this simulation, with its graph,
+     * behaviour and position already set. Its state starts over now.
+     */
+    public void addAgent(Agent agent) {
+        if (agent.sim != this) {
+            throw new IllegalArgumentException("agent of another simulation");
+        }
+        long time = beginInput();
+        agent.setNeighbours(grid);
+        agent.setDisplay(displayWidth, displayHeight);
+        agents.add(agent);
+        agent.onStateChanged();
+        requestAnimate(agent);
+        if (recorder != null) {
+            try {
+                recorder.recordAdd(time, agent.getGraph(), agent.getBehaviour().getName(),
+                        agent.behaviourSeed, agent.getX(), agent.getY(),
+                        agent.getTargetX(), agent.getTargetY());
+            } catch (IOException e) {
+                recordingFailed(e);
+            }
+        }
+        scheduleTimers();
+    }
+
+    /**
+     * Releases an agent, whether it was added or not.
+     */
+    public void removeAgent(Agent agent) {
+        agents.remove(agent);
+        int moved = agent.release();
+        for (int i = 0; moved >= 0 && i < agents.size(); i++) {
+            if (agents.get(i).getSlot() == moved) {
+                agents.get(i).setSlot(agent.getSlot());
+            }
+        }
+
+        if (agents.isEmpty()) {
+            animating = false;
+        }
+        scheduleTimers();
+    }
+
+    /**
+     * Switches an agent to another graph, starting over from its initial
+     * state.
+     */
+    public void setGraph(Agent agent, MotionGraph graph) {
+        int index = agents.indexOf(agent);
+        if (index < 0) {
+            agent.setGraph(graph);
+            return;
+        }
+
+        long time = beginInput();
+        agent.setGraph(graph);
+        requestAnimate(agent);
+        if (recorder != null) {
+            try {
+                recorder.recordGraph(time, index, graph);
+            } catch (IOException e) {
+                recordingFailed(e);
+            }
+        }
+        scheduleTimers();
+    }
+
+    /**
+     * @param seed given to the behaviour, so a trace can replay what it
+     *             picks
+     */
+    public void setBehaviour(Agent agent, Behaviour behaviour, long seed) {
+        int index = agents.indexOf(agent);
+        long time = (index >= 0 ? beginInput() : 0);
+        behaviour.setSeed(seed);
+        agent.behaviourSeed = seed;
+        agent.setBehaviour(behaviour);
+        if (index >= 0 && recorder != null) {
+            try {
+                recorder.recordBehaviour(time, index, behaviour.getName(), seed);
+            } catch (IOException e) {
+                recordingFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Points every neko at the given position, as a touch would.
+     */
+    public void setTargetPosition(float x, float y) {
+        long time = beginInput();
+        for (int i = 0; i < agents.size(); i++) {
+            Agent agent = agents.get(i);
+            agent.setTargetPosition(x, y);
+            requestAnimate(agent);
+        }
+        if (recorder != null) {
+            try {
+                recorder.recordTarget(time, x, y);
+            } catch (IOException e) {
+                recordingFailed(e);
+            }
+        }
+        scheduleTimers();
+    }
+
+    /**
+     * Stops every neko where it is, as touching outside a neko does.
+     */
+    public void forceStop() {
+        long time = beginInput();
+        for (int i = 0; i < agents.size(); i++) {
+            Agent agent = agents.get(i);
+            agent.forceStop();
+            requestAnimate(agent);
+        }
+        if (recorder != null) {
+            try {
+                recorder.recordStop(time);
+            } catch (IOException e) {
+                recordingFailed(e);
+            }
+        }
+        scheduleTimers();
+    }
+
+    public void setDisplay(int width, int height) {
+        long time = beginInput();
+        displayWidth = width;
+        displayHeight = height;
+        for (int i = 0; i < agents.size(); i++) {
+            agents.get(i).setDisplay(width, height);
+        }
+        grid.setBounds(width, height);
+        if (recorder != null) {
+            try {
+                recorder.recordDisplay(time, width, height);
+            } catch (IOException e) {
+                recordingFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Makes the step due at the given time be followed by one at another,
+     * as a stall recorded in a trace did, instead of by the next in turn.
+     */
+    public void skipSteps(long at, long to) {
+        skipTime = at;
+        skipTo = to;
+    }
+
+    /**
+     * Runs everything due by the clock's time before an input changes
+     * the nekos, so it lands between the same steps wherever the clock
+     * is woken up.
+     * @return nsec the input happens at
+     */
+    private long beginInput() {
+        if (!clock.isTicking()) {
+            runEvents(clock.now());
+        }
+        return getTime();
+    }
+
+    /**
+     * Steps the agent until it stops moving or changing state, starting
+     * right away if nothing was moving.
+     */
+    private void requestAnimate(Agent agent) {
+        agent.setAnimating(true);
+        if (!animating) {
+            animating = true;
+            nextStepTime = getTime();
+        }
+    }
+
+    private void updateToNext(Agent agent) {
+        if (agent.checkWall() ||
+                agent.updateMovingState() ||
+                agent.changeToNextState()) {
+            requestAnimate(agent);
+        }
+    }
+
+    /**
+     * Runs the motion ends and steps due by the given time in order of
+     * their nominal times, motion ends first and by agent on ties, then
+     * schedules the next ones.
+     */
+    private void runEvents(long now) {
+        while (true) {
+            long end = getNextMotionEnd();
+            long time = (end >= 0 && (!animating || end <= nextStepTime) ? end :
+                    animating ? nextStepTime : -1);
+            if (time < 0 || time > now) {
+                break;
+            }
+
+            eventTime = time;
+            if (time == end) {
+                for (int i = 0; i < agents.size(); i++) {
+                    Agent agent = agents.get(i);
+                    if (agent.motionEnd == time) {
+                        agent.motionEnd = -1;
+                        updateToNext(agent);
+                    }
+                }
+            } else {
+                runStep(time, now);
+            }
+            lastTime = time;
+        }
+        eventTime = -1;
+        scheduleTimers();
+    }
+
+    private void runStep(long time, long now) {
+        step();
+        nextStepTime = time + stepInterval;
+        if (skipTime == time) {
+            nextStepTime = skipTo;
+            skipTime = -1;
+        } else if (animating && now - nextStepTime > MAX_STEP_LAG) {
+            // a stalled thread only costs catching up, not speed
+            nextStepTime = now - MAX_STEP_LAG;
+            if (recorder != null) {
+                try {
+                    recorder.recordSkip(time, nextStepTime);
+                } catch (IOException e) {
+                    recordingFailed(e);
+                }
+            }
+        }
+    }
+
+    private long getNextMotionEnd() {
+        long next = -1;
+        for (int i = 0; i < agents.size(); i++) {
+            long end = agents.get(i).motionEnd;
+            if (end >= 0 && (next < 0 || end < next)) {
+                next = end;
+            }
+        }
+        return next;
+    }
+
+    private void scheduleTimers() {
+        if (animating) {
+            clock.schedule(stepTimer, nextStepTime);
+        } else {
+            clock.cancel(stepTimer);
+        }
+        long end = getNextMotionEnd();
+        if (end >= 0) {
+            clock.schedule(endTimer, end);
+        } else {
+            clock.cancel(endTimer);
+        }
+    }
+
+    private void step() {
+        // move everyone in one pass, keep them from piling up, then pick
+        // the motions to show
+        updateGridCellSize();
+        batch.step(stepInterval / 1000000000f);
+        grid.build(batch.x, batch.y, batch.velX, batch.velY, batch.size());
+        if (agents.size() > 1) {
+            batch.avoidOverlap(grid, grid.getCellSize(), neighbourScratch);
+        }
+        stepCount++;
+
+        animating = false;
+        for (int i = 0; i < agents.size(); i++) {
+            Agent agent = agents.get(i);
+            if (!agent.isAnimating()) {
+                continue;
+            }
+
+            agent.updateState();
+            agent.followNeighbours();
+            if (!agent.isStateChanged() && !agent.isPositionMoved()) {
+                agent.setAnimating(false);
+            }
+            animating |= agent.isAnimating();
+        }
+        if (listener != null) {
+            listener.onStep(this);
+        }
+    }
+
+    /**
+     * Sizes the neighbour grid cells after the largest sprite shown.
+     */
+    private void updateGridCellSize() {
+        float size = DEF_SPRITE_SIZE;
+        for (int i = 0; i < agents.size(); i++) {
+            Agent agent = agents.get(i);
+            size = Math.max(size, Math.max(agent.getSpriteWidth(), agent.getSpriteHeight()));
+        }
+        if (size != grid.getCellSize()) {
+            grid.setCellSize(size);
+        }
+    }
+
+    private void recordingFailed(IOException e) {
+        e.printStackTrace();
+        try {
+            recorder.close();
+        } catch (IOException ignored) {
+        }
+        recorder = null;
+    }
+}
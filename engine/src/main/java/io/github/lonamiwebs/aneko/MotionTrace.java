@@ -0,0 +1,427 @@
+package io.github.lonamiwebs.aneko;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+/**
+ * A compact binary record of everything that steers the nekos: where they
+ * appear, the graphs, behaviours and random seeds they get, touches,
+ * display changes and stalls of the thread stepping them, each at its
+ * {@link MotionSimulation#getTime} as the simulation recording it saw.
+ * Replaying it through a {@link MotionSimulation} on a
+ * {@link VirtualClock} plays the same run again, step for step and bit for
+ * bit, as fast as the steps compute.
+ * <p>
+ * Layout: magic, version, display size, step interval and density, then
+ * records of a type byte, the nsec since the previous record as a varint,
+ * and the payload of the type, until {@link #TYPE_END}. A graph is written
+ * out the first time a record refers to it, and by its index after that.
+ */
+public class MotionTrace {
+    public static final int MAGIC = 0x414e4b54; // "ANKT"
+    public static final int VERSION = 2;
+
+    private static final int TYPE_END = 0;
+    private static final int TYPE_ADD = 1; // graph, behaviour, seed, x, y, targetX, targetY
+    private static final int TYPE_BEHAVIOUR = 2; // agent, name, seed
+    private static final int TYPE_TARGET = 3; // x, y
+    private static final int TYPE_STOP = 4;
+    private static final int TYPE_DISPLAY = 5; // width, height
+    private static final int TYPE_GRAPH = 6; // agent, graph
+    private static final int TYPE_SKIP = 7; // nsec from this step to the next
+
+    /**
+     * Outcome of a run, to compare against another. Given to a
+     * simulation as its listener, it sums up the run being recorded.
+     */
+    public static class Result implements MotionSimulation.Listener {
+        private long steps;
+        private long hash = 1125899906842597L;
+        private float density;
+
+        public long getStepCount() {
+            return steps;
+        }
+
+        /**
+         * @return a hash of the exact position and state of every neko
+         * after every step; equal for bit-identical runs
+         */
+        public long getHash() {
+            return hash;
+        }
+
+        /**
+         * @return of the display the trace was recorded on, which its
+         * graphs are already scaled to
+         */
+        public float getDensity() {
+            return density;
+        }
+
+        @Override
+        public void onStep(MotionSimulation sim) {
+            steps++;
+            for (int i = 0; i < sim.getAgentCount(); i++) {
+                MotionAgent agent = sim.getAgent(i);
+                mix(Float.floatToIntBits(agent.getX()));
+                mix(Float.floatToIntBits(agent.getY()));
+                mix(agent.getState());
+            }
+        }
+
+        @Override
+        public void onStateChanged(MotionSimulation.Agent agent) {
+        }
+
+        private void mix(int value) {
+            hash = 31 * hash + value;
+        }
+    }
+
+    public static class Recorder implements Closeable {
+        private final DataOutputStream out;
+        private final IdentityHashMap<MotionGraph, Integer> graphs =
+                new IdentityHashMap<MotionGraph, Integer>();
+        private long lastTime = -1;
+
+        /**
+         * Writes the header right away.
+         * @param stepInterval nsec between physics steps
+         * @param density of the display, which the graphs are scaled to
+         */
+        public Recorder(OutputStream _out, int displayWidth, int displayHeight,
+                        long stepInterval, float density) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(_out));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(displayWidth);
+            out.writeInt(displayHeight);
+            out.writeLong(stepInterval);
+            out.writeFloat(density);
+        }
+
+        public void recordAdd(long time, MotionGraph graph, String behaviour, long seed,
+                              float x, float y, float targetX, float targetY)
+                throws IOException {
+            begin(TYPE_ADD, time);
+            writeGraph(graph);
+            out.writeUTF(behaviour);
+            out.writeLong(seed);
+            out.writeFloat(x);
+            out.writeFloat(y);
+            out.writeFloat(targetX);
+            out.writeFloat(targetY);
+        }
+
+        public void recordBehaviour(long time, int agent, String name,
+                                    long seed) throws IOException {
+            begin(TYPE_BEHAVIOUR, time);
+            writeVarLong(agent);
+            out.writeUTF(name);
+            out.writeLong(seed);
+        }
+
+        public void recordGraph(long time, int agent, MotionGraph graph) throws IOException {
+            begin(TYPE_GRAPH, time);
+            writeVarLong(agent);
+            writeGraph(graph);
+        }
+
+        public void recordTarget(long time, float x, float y) throws IOException {
+            begin(TYPE_TARGET, time);
+            out.writeFloat(x);
+            out.writeFloat(y);
+        }
+
+        public void recordStop(long time) throws IOException {
+            begin(TYPE_STOP, time);
+        }
+
+        public void recordDisplay(long time, int width, int height) throws IOException {
+            begin(TYPE_DISPLAY, time);
+            writeVarLong(width);
+            writeVarLong(height);
+        }
+
+        /**
+         * @param time nsec of a step after which the thread stepping fell
+         *             too far behind to catch up
+         * @param next nsec of the step it went on with
+         */
+        public void recordSkip(long time, long next) throws IOException {
+            begin(TYPE_SKIP, time);
+            writeVarLong(next - time);
+        }
+
+        /**
+         * Ends the trace at the given time, so a replay runs until then.
+         */
+        public void finish(long time) throws IOException {
+            begin(TYPE_END, time);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void begin(int type, long time) throws IOException {
+            if (lastTime < 0) {
+                lastTime = time;
+            }
+            if (time < lastTime) {
+                throw new IllegalArgumentException(
+                        "records must be in time order: " + time + " < " + lastTime);
+            }
+            out.writeByte(type);
+            writeVarLong(time - lastTime);
+            lastTime = time;
+        }
+
+        /**
+         * Writes the index of the graph, followed by the graph itself the
+         * first time.
+         */
+        private void writeGraph(MotionGraph graph) throws IOException {
+            Integer index = graphs.get(graph);
+            if (index != null) {
+                writeVarLong(index);
+                return;
+            }
+            writeVarLong(graphs.size());
+            graphs.put(graph, graphs.size());
+
+            out.writeFloat(graph.getAcceleration());
+            out.writeFloat(graph.getMaxVelocity());
+            out.writeFloat(graph.getDeaccelerationDistance());
+            out.writeFloat(graph.getProximityDistance());
+            int count = graph.getStateCount();
+            writeVarLong(count);
+            for (int state = 0; state < count; state++) {
+                out.writeUTF(graph.getStateName(state));
+                writeVarLong(graph.getNextState(state) + 1);
+                out.writeBoolean(graph.needCheckMove(state));
+                out.writeBoolean(graph.needCheckWall(state));
+                out.writeInt(graph.getSpriteWidth(state));
+                out.writeInt(graph.getSpriteHeight(state));
+                writeTimeline(graph.getTimeline(state));
+            }
+            writeVarLong(graph.getInitialState() + 1);
+            writeVarLong(graph.getAwakeState() + 1);
+            for (MotionGraph.MoveDirection dir : MotionGraph.MoveDirection.values()) {
+                writeVarLong(graph.getMoveState(dir) + 1);
+            }
+            for (MotionGraph.WallDirection dir : MotionGraph.WallDirection.values()) {
+                writeVarLong(graph.getWallState(dir) + 1);
+            }
+        }
+
+        private void writeTimeline(Timeline timeline) throws IOException {
+            out.writeBoolean(timeline != null);
+            if (timeline == null) {
+                return;
+            }
+            int count = timeline.getSegmentCount();
+            writeVarLong(count);
+            for (int i = 0; i < count; i++) {
+                writeVarLong(timeline.getFrame(i));
+                out.writeInt(timeline.getDuration(i));
+            }
+            writeVarLong(timeline.getLoopStart() + 1);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    private MotionTrace() {
+    }
+
+    /**
+     * Plays a trace from the start on a fresh virtual clock.
+     * @param tail nsec to keep running after the last record
+     */
+    public static Result replay(InputStream _in, long tail) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(_in));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a motion trace of version " + VERSION);
+        }
+        int displayWidth = in.readInt();
+        int displayHeight = in.readInt();
+        long stepInterval = in.readLong();
+
+        VirtualClock time = new VirtualClock();
+        AnimationClock clock = new AnimationClock(time);
+        MotionSimulation sim = new MotionSimulation(clock, displayWidth, displayHeight,
+                stepInterval);
+        Result result = new Result();
+        result.density = in.readFloat();
+        sim.setListener(result);
+        ArrayList<MotionGraph> graphs = new ArrayList<MotionGraph>();
+
+        long now = 0;
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                throw new EOFException("trace ends without its end record");
+            }
+            now += readVarLong(in);
+            if (type == TYPE_SKIP) {
+                // about the step due right then, so before running it
+                sim.skipSteps(now, now + readVarLong(in));
+            }
+            // records at the same time happened together, with no timers between
+            time.advanceTo(now, clock);
+
+            switch (type) {
+                case TYPE_ADD: {
+                    MotionSimulation.Agent agent = new MotionSimulation.Agent(sim);
+                    sim.setGraph(agent, readGraph(in, graphs));
+                    sim.setBehaviour(agent, Behaviour.fromName(in.readUTF()), in.readLong());
+                    agent.setPosition(in.readFloat(), in.readFloat());
+                    agent.setTarget(in.readFloat(), in.readFloat());
+                    sim.addAgent(agent);
+                    break;
+                }
+                case TYPE_BEHAVIOUR: {
+                    MotionSimulation.Agent agent = getAgent(sim, in);
+                    sim.setBehaviour(agent, Behaviour.fromName(in.readUTF()), in.readLong());
+                    break;
+                }
+                case TYPE_GRAPH: {
+                    MotionSimulation.Agent agent = getAgent(sim, in);
+                    sim.setGraph(agent, readGraph(in, graphs));
+                    break;
+                }
+                case TYPE_TARGET:
+                    sim.setTargetPosition(in.readFloat(), in.readFloat());
+                    break;
+                case TYPE_STOP:
+                    sim.forceStop();
+                    break;
+                case TYPE_DISPLAY:
+                    sim.setDisplay((int) readVarLong(in), (int) readVarLong(in));
+                    break;
+                case TYPE_SKIP:
+                    break;
+                case TYPE_END:
+                    time.advanceTo(now + tail, clock);
+                    return result;
+                default:
+                    throw new IOException("bad trace record: " + type);
+            }
+        }
+    }
+
+    private static MotionSimulation.Agent getAgent(MotionSimulation sim, DataInputStream in)
+            throws IOException {
+        int index = (int) readVarLong(in);
+        if (index >= sim.getAgentCount()) {
+            throw new IOException("bad agent in trace: " + index);
+        }
+        return (MotionSimulation.Agent) sim.getAgent(index);
+    }
+
+    private static MotionGraph readGraph(DataInputStream in, ArrayList<MotionGraph> graphs)
+            throws IOException {
+        int index = (int) readVarLong(in);
+        if (index < graphs.size()) {
+            return graphs.get(index);
+        } else if (index > graphs.size()) {
+            throw new IOException("bad graph in trace: " + index);
+        }
+
+        MotionGraph.Builder builder = new MotionGraph.Builder()
+                .setPhysics(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+        int count = (int) readVarLong(in);
+        String[] names = new String[count];
+        long[] nextStates = new long[count];
+        boolean[] checkMoves = new boolean[count];
+        boolean[] checkWalls = new boolean[count];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        Timeline[] timelines = new Timeline[count];
+        for (int state = 0; state < count; state++) {
+            names[state] = in.readUTF();
+            nextStates[state] = readVarLong(in);
+            checkMoves[state] = in.readBoolean();
+            checkWalls[state] = in.readBoolean();
+            widths[state] = in.readInt();
+            heights[state] = in.readInt();
+            timelines[state] = readTimeline(in);
+        }
+        // states refer to each other by name until all of them are known
+        for (int state = 0; state < count; state++) {
+            builder.addState(names[state], timelines[state], getName(names, nextStates[state]),
+                    checkMoves[state], checkWalls[state], widths[state], heights[state]);
+        }
+        builder.setInitialState(getName(names, readVarLong(in)));
+        builder.setAwakeState(getName(names, readVarLong(in)));
+        for (MotionGraph.MoveDirection dir : MotionGraph.MoveDirection.values()) {
+            builder.setMoveState(dir, getName(names, readVarLong(in)));
+        }
+        for (MotionGraph.WallDirection dir : MotionGraph.WallDirection.values()) {
+            builder.setWallState(dir, getName(names, readVarLong(in)));
+        }
+        try {
+            graphs.add(builder.build());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("bad graph in trace", e);
+        }
+        return graphs.get(index);
+    }
+
+    /**
+     * @param id of the state plus one, as written, so 0 is none
+     */
+    private static String getName(String[] names, long id) throws IOException {
+        if (id < 0 || id > names.length) {
+            throw new IOException("bad state in trace: " + (id - 1));
+        }
+        return (id > 0 ? names[(int) id - 1] : null);
+    }
+
+    private static Timeline readTimeline(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int count = (int) readVarLong(in);
+        int[] frames = new int[count];
+        int[] durations = new int[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = (int) readVarLong(in);
+            durations[i] = in.readInt();
+        }
+        return Timeline.fromSegments(frames, durations, (int) readVarLong(in) - 1);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("bad varint in trace");
+    }
+}
@@ -0,0 +1,340 @@
+package io.github.lonamiwebs.aneko;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves many agents at once. Every property lives in its own primitive
+ * array indexed by agent slot, so a step is a single loop over flat
+ * memory. Steps only move agents and report what happened to each in
+ * {@link #events}; choosing the motion to show is up to the caller.
+ */
+public class PhysicsBatch {
+    public static final int EVENT_NONE = 0;
+    /** Not moving and the target is far: should wake up. */
+    public static final int EVENT_AWAKE = 1;
+    /** Was moving and reached its target: velocity was reset. */
+    public static final int EVENT_ARRIVED = 2;
+    /** Moved towards its target, heading in {@link #directions}. */
+    public static final int EVENT_MOVED = 3;
+
+    /** Agents from which a step is split across threads. */
+    public static final int PARALLEL_THRESHOLD = 8192;
+    private static final int PARALLEL_CHUNK = 2048;
+
+    private static final float TAN_PI_8 = 0.41421356f;
+
+    public float[] x, y;
+    public float[] prevX, prevY; // position before the last step
+    public float[] velX, velY; // pixels per sec
+    public float[] targetX, targetY;
+    public float[] acceleration, maxVelocity;
+    public float[] deaccelerationDistance, proximityDistance;
+    public boolean[] moving; // showing a moving state
+    public boolean[] active; // stepped at all
+    public int[] states;
+    public int[] events;
+    public int[] directions; // 0 = right, clockwise in steps of 45 degrees
+
+    private int size = 0;
+
+    public PhysicsBatch() {
+        this(4);
+    }
+
+    public PhysicsBatch(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot of a new agent, still and inactive at the origin
+     */
+    public int add() {
+        if (size == x.length) {
+            allocate(size * 2);
+        }
+
+        int slot = size++;
+        x[slot] = y[slot] = prevX[slot] = prevY[slot] = 0;
+        velX[slot] = velY[slot] = targetX[slot] = targetY[slot] = 0;
+        acceleration[slot] = maxVelocity[slot] = 0;
+        deaccelerationDistance[slot] = proximityDistance[slot] = 0;
+        moving[slot] = active[slot] = false;
+        states[slot] = -1;
+        events[slot] = EVENT_NONE;
+        directions[slot] = 0;
+        return slot;
+    }
+
+    /**
+     * Removes an agent by moving the last one into its slot.
+     * @return the old slot of the agent now at the given slot, or -1 if
+     * the removed agent was the last one
+     */
+    public int remove(int slot) {
+        int last = --size;
+        if (slot == last) {
+            return -1;
+        }
+
+        x[slot] = x[last];
+        y[slot] = y[last];
+        prevX[slot] = prevX[last];
+        prevY[slot] = prevY[last];
+        velX[slot] = velX[last];
+        velY[slot] = velY[last];
+        targetX[slot] = targetX[last];
+        targetY[slot] = targetY[last];
+        acceleration[slot] = acceleration[last];
+        maxVelocity[slot] = maxVelocity[last];
+        deaccelerationDistance[slot] = deaccelerationDistance[last];
+        proximityDistance[slot] = proximityDistance[last];
+        moving[slot] = moving[last];
+        active[slot] = active[last];
+        states[slot] = states[last];
+        events[slot] = events[last];
+        directions[slot] = directions[last];
+        return last;
+    }
+
+    public void setPhysics(int slot, float _acceleration, float _maxVelocity,
+                           float _deaccelerationDistance, float _proximityDistance) {
+        acceleration[slot] = _acceleration;
+        maxVelocity[slot] = _maxVelocity;
+        deaccelerationDistance[slot] = _deaccelerationDistance;
+        proximityDistance[slot] = _proximityDistance;
+    }
+
+    /**
+     * Steps every active agent, across threads for large batches.
+     * @param interval sec
+     */
+    public void step(float interval) {
+        if (size >= PARALLEL_THRESHOLD && Parallel.AVAILABLE) {
+            Parallel.step(this, interval);
+        } else {
+            step(interval, 0, size);
+        }
+    }
+
+    /**
+     * Steps the active agents in [from, to).
+     * @param interval sec
+     */
+    public void step(float interval, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!active[i]) {
+                events[i] = EVENT_NONE;
+                continue;
+            }
+
+            float cx = x[i];
+            float cy = y[i];
+            prevX[i] = cx;
+            prevY[i] = cy;
+
+            float dx = targetX[i] - cx;
+            float dy = targetY[i] - cy;
+            float len = (float) Math.sqrt(dx * dx + dy * dy);
+            if (len <= proximityDistance[i]) {
+                if (moving[i]) {
+                    velX[i] = velY[i] = 0;
+                    events[i] = EVENT_ARRIVED;
+                } else {
+                    events[i] = EVENT_NONE;
+                }
+                continue;
+            }
+
+            if (!moving[i]) {
+                events[i] = EVENT_AWAKE;
+                continue;
+            }
+
+            float a = acceleration[i] * interval / len;
+            float vx = velX[i] + a * dx;
+            float vy = velY[i] + a * dy;
+            float vec = (float) Math.sqrt(vx * vx + vy * vy);
+            float vmax = maxVelocity[i] *
+                    Math.min((len + 1) / (deaccelerationDistance[i] + 1), 1);
+            if (vec > vmax) {
+                float vr = vmax / vec;
+                vx *= vr;
+                vy *= vr;
+            }
+
+            velX[i] = vx;
+            velY[i] = vy;
+            x[i] = cx + vx * interval;
+            y[i] = cy + vy * interval;
+            directions[i] = getDirection(vx, vy);
+            events[i] = EVENT_MOVED;
+        }
+    }
+
+    /**
+     * Pushes moving agents apart when closer than the given distance, so
+     * their sprites do not pile up. Agents near their target are left
+     * alone, so they can still arrive where another one sits.
+     * @param grid hash built from the current positions of this batch
+     * @param scratch receives neighbours; its length bounds how many count
+     */
+    public void avoidOverlap(SpatialHash grid, float distance, int[] scratch) {
+        for (int i = 0; i < size; i++) {
+            if (!active[i] || !moving[i]) {
+                continue;
+            }
+
+            float cx = x[i];
+            float cy = y[i];
+            float tx = targetX[i] - cx;
+            float ty = targetY[i] - cy;
+            if (tx * tx + ty * ty <= distance * distance) {
+                continue;
+            }
+
+            int found = grid.query(cx, cy, distance, i, scratch);
+            float pushX = 0, pushY = 0;
+            for (int n = 0; n < found; n++) {
+                int j = scratch[n];
+                float dx = cx - x[j];
+                float dy = cy - y[j];
+                float d = (float) Math.sqrt(dx * dx + dy * dy);
+                if (d < 0.001f) {
+                    // exactly on top of each other, split by slot
+                    pushX += (i > j ? distance : -distance) / 2;
+                    continue;
+                }
+
+                float overlap = (distance - d) / d / 2;
+                pushX += dx * overlap;
+                pushY += dy * overlap;
+            }
+
+            x[i] = cx + pushX;
+            y[i] = cy + pushY;
+        }
+    }
+
+    /**
+     * @return the nearest of the eight directions, 0 being right and
+     * going clockwise (y grows downwards)
+     */
+    public static int getDirection(float vx, float vy) {
+        float ax = Math.abs(vx);
+        float ay = Math.abs(vy);
+        if (ay <= ax * TAN_PI_8) {
+            return (vx >= 0 ? 0 : 4);
+        } else if (ax <= ay * TAN_PI_8) {
+            return (vy >= 0 ? 2 : 6);
+        } else if (vy >= 0) {
+            return (vx >= 0 ? 1 : 3);
+        } else {
+            return (vx >= 0 ? 7 : 5);
+        }
+    }
+
+    private void allocate(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        prevX = grow(prevX, capacity);
+        prevY = grow(prevY, capacity);
+        velX = grow(velX, capacity);
+        velY = grow(velY, capacity);
+        targetX = grow(targetX, capacity);
+        targetY = grow(targetY, capacity);
+        acceleration = grow(acceleration, capacity);
+        maxVelocity = grow(maxVelocity, capacity);
+        deaccelerationDistance = grow(deaccelerationDistance, capacity);
+        proximityDistance = grow(proximityDistance, capacity);
+        moving = grow(moving, capacity);
+        active = grow(active, capacity);
+        states = grow(states, capacity);
+        events = grow(events, capacity);
+        directions = grow(directions, capacity);
+    }
+
+    private float[] grow(float[] array, int capacity) {
+        float[] narray = new float[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, narray, 0, size);
+        }
+        return narray;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] narray = new int[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, narray, 0, size);
+        }
+        return narray;
+    }
+
+    private boolean[] grow(boolean[] array, int capacity) {
+        boolean[] narray = new boolean[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, narray, 0, size);
+        }
+        return narray;
+    }
+
+    /**
+     * Only loaded where fork/join exists, so older releases never see it.
+     */
+    private static class Parallel {
+        private static final boolean AVAILABLE = isAvailable();
+        private static ForkJoinPool pool;
+
+        private static boolean isAvailable() {
+            try {
+                Class.forName("java.util.concurrent.ForkJoinPool");
+                return true;
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        private static synchronized ForkJoinPool getPool() {
+            if (pool == null) {
+                pool = new ForkJoinPool();
+            }
+            return pool;
+        }
+
+        private static void step(PhysicsBatch batch, float interval) {
+            getPool().invoke(new StepTask(batch, interval, 0, batch.size));
+        }
+    }
+
+    private static class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PhysicsBatch batch;
+        private final float interval;
+        private final int from;
+        private final int to;
+
+        private StepTask(PhysicsBatch batch, float interval, int from, int to) {
+            this.batch = batch;
+            this.interval = interval;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                batch.step(interval, from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new StepTask(batch, interval, from, mid),
+                    new StepTask(batch, interval, mid, to));
+        }
+    }
+}
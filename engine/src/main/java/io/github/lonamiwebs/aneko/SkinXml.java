@@ -0,0 +1,150 @@
+package io.github.lonamiwebs.aneko;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Loads a skin XML from a resource directory on the JVM, the way
+ * MotionParams does at mdpi, so tests and benchmarks run against the
+ * motions that ship instead of a copy of them. Frame sizes come from the
+ * mdpi drawables.
+ */
+public final class SkinXml {
+    private static final int PNG_WIDTH_OFFSET = 16; // of the IHDR chunk
+
+    private final File res;
+    private final HashMap<String, Integer> frames = new HashMap<String, Integer>();
+
+    private SkinXml(File _res) {
+        res = _res;
+    }
+
+    /**
+     * @param res resource directory, holding xml/ and drawable-mdpi/
+     * @param skin name of the XML, without extension
+     */
+    public static MotionGraph load(File res, String skin) {
+        try {
+            return new SkinXml(res).load(new File(res, "xml/" + skin + ".xml"));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Load failed: " + skin, e);
+        }
+    }
+
+    private MotionGraph load(File file) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        Element root = doc.getDocumentElement();
+
+        MotionGraph.Builder builder = new MotionGraph.Builder()
+                .setPhysics(getInt(root, "acceleration", 160), getInt(root, "maxVelocity", 100),
+                        getInt(root, "deaccelerationDistance", 100),
+                        getInt(root, "proximityDistance", 10))
+                .setInitialState(getString(root, "initialState", "stop"))
+                .setAwakeState(getString(root, "awakeState", "awake"));
+        String movePrefix = getString(root, "moveStatePrefix", "move");
+        String wallPrefix = getString(root, "wallStatePrefix", "wall");
+        for (MotionGraph.MoveDirection dir : MotionGraph.MoveDirection.values()) {
+            builder.setMoveState(dir, movePrefix + toName(dir.name()));
+        }
+        for (MotionGraph.WallDirection dir : MotionGraph.WallDirection.values()) {
+            builder.setWallState(dir, wallPrefix + toName(dir.name()));
+        }
+
+        for (Element motion : getChildren(root)) {
+            Timeline.Builder timeline = new Timeline.Builder();
+            int[] size = addItems(timeline, motion);
+            builder.addState(motion.getAttribute("state"),
+                    timeline.build(getInt(motion, "duration", -1)),
+                    getString(motion, "nextState", null),
+                    Boolean.parseBoolean(motion.getAttribute("checkMove")),
+                    Boolean.parseBoolean(motion.getAttribute("checkWall")),
+                    size[0], size[1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the size of the first frame
+     */
+    private int[] addItems(Timeline.Builder timeline, Element parent) throws IOException {
+        int[] size = null;
+        for (Element item : getChildren(parent)) {
+            int[] itemSize;
+            if ("item".equals(item.getTagName())) {
+                String drawable = item.getAttribute("drawable").replace("@drawable/", "");
+                String key = drawable + ("true".equals(item.getAttribute("mirror")) ? "~" : "");
+                Integer frame = frames.get(key);
+                if (frame == null) {
+                    frame = frames.size();
+                    frames.put(key, frame);
+                }
+                timeline.addFrame(frame, getInt(item, "duration", -1));
+                itemSize = readPngSize(new File(res, "drawable-mdpi/" + drawable + ".png"));
+            } else if ("repeat-item".equals(item.getTagName())) {
+                timeline.beginRepeat();
+                itemSize = addItems(timeline, item);
+                timeline.endRepeat(getInt(item, "repeatCount", -1), getInt(item, "duration", -1));
+            } else {
+                throw new IllegalArgumentException("unknown tag: " + item.getTagName());
+            }
+            if (size == null) {
+                size = itemSize;
+            }
+        }
+        return (size != null ? size : new int[]{-1, -1});
+    }
+
+    private static int[] readPngSize(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.skipBytes(PNG_WIDTH_OFFSET);
+            return new int[]{in.readInt(), in.readInt()};
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Element[] getChildren(Element parent) {
+        NodeList nodes = parent.getChildNodes();
+        int count = 0;
+        Element[] children = new Element[nodes.getLength()];
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                children[count++] = (Element) nodes.item(i);
+            }
+        }
+        Element[] result = new Element[count];
+        System.arraycopy(children, 0, result, 0, count);
+        return result;
+    }
+
+    private static String getString(Element e, String name, String def) {
+        return (e.hasAttribute(name) ? e.getAttribute(name) : def);
+    }
+
+    private static int getInt(Element e, String name, int def) {
+        return (e.hasAttribute(name) ? Integer.parseInt(e.getAttribute(name)) : def);
+    }
+
+    /**
+     * @return UP_LEFT as UpLeft, like the state names in skins
+     */
+    private static String toName(String constant) {
+        StringBuilder name = new StringBuilder();
+        for (String part : constant.split("_")) {
+            name.append(part.charAt(0)).append(part.substring(1).toLowerCase(Locale.US));
+        }
+        return name.toString();
+    }
+}
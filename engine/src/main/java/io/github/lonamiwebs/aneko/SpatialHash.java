@@ -0,0 +1,222 @@
+package io.github.lonamiwebs.aneko;
+
+/**
+ * Uniform grid over the display for finding agents near a point without
+ * checking every pair. It is rebuilt from the agent positions every tick
+ * with a counting sort, so building and querying never allocate. Agents
+ * off the display go to the border cells, so they are still found.
+ */
+public class SpatialHash {
+    private float cellSize;
+    private int width = 1, height = 1;
+    private int cols = 1, rows = 1;
+
+    private int[] cellStart = new int[2]; // first entry of each cell, and the end
+    private int[] entries = new int[0]; // agents sorted by cell
+    private int[] agentCells = new int[0];
+
+    private float[] xs;
+    private float[] ys;
+    private float[] vxs; // optional
+    private float[] vys;
+    private int count = 0;
+
+    /**
+     * @param _cellSize px, usually about the size of a sprite
+     */
+    public SpatialHash(float _cellSize) {
+        cellSize = Math.max(_cellSize, 1);
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public void setCellSize(float _cellSize) {
+        cellSize = Math.max(_cellSize, 1);
+        resize();
+    }
+
+    public void setBounds(int _width, int _height) {
+        width = Math.max(_width, 1);
+        height = Math.max(_height, 1);
+        resize();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public float getX(int agent) {
+        return xs[agent];
+    }
+
+    public float getY(int agent) {
+        return ys[agent];
+    }
+
+    /**
+     * @return the x velocity given to the last build, or 0 if none was
+     */
+    public float getVelX(int agent) {
+        return (vxs != null ? vxs[agent] : 0);
+    }
+
+    public float getVelY(int agent) {
+        return (vys != null ? vys[agent] : 0);
+    }
+
+    /**
+     * Hashes the first count agents. The arrays are kept, not copied, and
+     * queries see them as they are until the next build.
+     */
+    public void build(float[] x, float[] y, int _count) {
+        build(x, y, null, null, _count);
+    }
+
+    /**
+     * Hashes the first count agents along with their velocities, for
+     * queries that care where neighbours are heading.
+     */
+    public void build(float[] x, float[] y, float[] vx, float[] vy, int _count) {
+        xs = x;
+        ys = y;
+        vxs = vx;
+        vys = vy;
+        count = _count;
+        if (entries.length < count) {
+            entries = new int[count];
+            agentCells = new int[count];
+        }
+
+        int cells = cols * rows;
+        for (int c = 0; c <= cells; c++) {
+            cellStart[c] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = getCol(x[i]) + getRow(y[i]) * cols;
+            agentCells[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        for (int i = 0; i < count; i++) {
+            entries[cellStart[agentCells[i]]++] = i;
+        }
+        // filling moved every start to the next cell's, shift them back
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /**
+     * Finds the agents within radius of a point.
+     * @param exclude agent to leave out, e.g. the one asking, or -1
+     * @param out receives the agents found, as many as fit
+     * @return how many agents were put in out
+     */
+    public int query(float x, float y, float radius, int exclude, int[] out) {
+        int found = 0;
+        float r2 = radius * radius;
+        int col0 = getCol(x - radius), col1 = getCol(x + radius);
+        int row0 = getRow(y - radius), row1 = getRow(y + radius);
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                int cell = col + row * cols;
+                for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                    int agent = entries[e];
+                    if (agent == exclude) {
+                        continue;
+                    }
+
+                    float dx = xs[agent] - x;
+                    float dy = ys[agent] - y;
+                    if (dx * dx + dy * dy <= r2) {
+                        if (found == out.length) {
+                            return found;
+                        }
+                        out[found++] = agent;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param exclude agent to leave out, e.g. the one asking, or -1
+     * @return the agent nearest to a point within maxRadius, or -1
+     */
+    public int nearest(float x, float y, float maxRadius, int exclude) {
+        int best = -1;
+        float bestDist2 = maxRadius * maxRadius;
+        int col = getCol(x), row = getRow(y);
+        int maxRing = (int) Math.ceil(maxRadius / cellSize) + 1;
+
+        // look ring by ring until nothing closer can be in the next one
+        for (int ring = 0; ring <= maxRing; ring++) {
+            float reach = (ring - 1) * cellSize;
+            if (best >= 0 && reach > 0 && reach * reach > bestDist2) {
+                break;
+            }
+            if (col - ring < 0 && row - ring < 0 && col + ring >= cols && row + ring >= rows) {
+                break;
+            }
+
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edge = (r == row - ring || r == row + ring);
+                int step = (edge ? 1 : Math.max(ring * 2, 1));
+                for (int c = col - ring; c <= col + ring; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+
+                    int cell = c + r * cols;
+                    for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                        int agent = entries[e];
+                        if (agent == exclude) {
+                            continue;
+                        }
+
+                        float dx = xs[agent] - x;
+                        float dy = ys[agent] - y;
+                        float d2 = dx * dx + dy * dy;
+                        if (d2 <= bestDist2) {
+                            best = agent;
+                            bestDist2 = d2;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private void resize() {
+        cols = Math.max((int) Math.ceil(width / cellSize), 1);
+        rows = Math.max((int) Math.ceil(height / cellSize), 1);
+        if (cellStart.length < cols * rows + 1) {
+            cellStart = new int[cols * rows + 1];
+        }
+        // empty until the next build
+        for (int c = 0; c <= cols * rows; c++) {
+            cellStart[c] = 0;
+        }
+        count = 0;
+    }
+
+    private int getCol(float x) {
+        int col = (int) Math.floor(x / cellSize);
+        return (col < 0 ? 0 : col >= cols ? cols - 1 : col);
+    }
+
+    private int getRow(float y) {
+        int row = (int) Math.floor(y / cellSize);
+        return (row < 0 ? 0 : row >= rows ? rows - 1 : row);
+    }
+}
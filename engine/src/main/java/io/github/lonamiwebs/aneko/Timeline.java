@@ -0,0 +1,318 @@
+package io.github.lonamiwebs.aneko;
+
+import java.util.ArrayList;
+
+/**
+ * A motion compiled into a flat list of segments, each showing one frame
+ * for a fixed time. Finite repeats are expanded; an unbounded repeat
+ * becomes a loop over the trailing segments, and an item without duration
+ * becomes a last segment held forever.
+ */
+public class Timeline {
+    private static final int MAX_SEGMENTS = 65536;
+
+    private final int[] frames;
+    private final int[] starts; // msec from the start of the motion
+    private final int[] durations; // msec, -1 for the held last segment
+    private final int loopStart; // first segment of the loop, -1 if none
+    private final int length; // end of the last segment, -1 if held
+
+    private Timeline(Track track) {
+        int n = track.size;
+        frames = new int[n];
+        starts = new int[n];
+        durations = new int[n];
+        System.arraycopy(track.frames, 0, frames, 0, n);
+        System.arraycopy(track.durations, 0, durations, 0, n);
+
+        int time = 0;
+        for (int i = 0; i < n; i++) {
+            starts[i] = time;
+            time += Math.max(durations[i], 0);
+        }
+
+        loopStart = track.loopStart;
+        length = (track.hold ? -1 : time);
+    }
+
+    public int getSegmentCount() {
+        return frames.length;
+    }
+
+    public int getFrame(int segment) {
+        return frames[segment];
+    }
+
+    public int getStart(int segment) {
+        return starts[segment];
+    }
+
+    public int getDuration(int segment) {
+        return durations[segment];
+    }
+
+    /**
+     * @return the first segment of the loop, or -1 if the motion does not
+     * loop
+     */
+    public int getLoopStart() {
+        return loopStart;
+    }
+
+    /**
+     * Rebuilds a timeline from its segments, as {@link #getFrame},
+     * {@link #getDuration} and {@link #getLoopStart} give them.
+     */
+    static Timeline fromSegments(int[] frames, int[] durations, int loopStart) {
+        Track track = new Track();
+        for (int i = 0; i < frames.length; i++) {
+            track.add(frames[i], durations[i]);
+        }
+        track.loopStart = loopStart;
+        track.hold = (frames.length > 0 && durations[frames.length - 1] < 0);
+        return new Timeline(track);
+    }
+
+    /**
+     * @return msec since the start at which the motion ends, or -1 if it
+     * loops or holds its last frame forever
+     */
+    public long getEndTime() {
+        return (frames.length == 0 ? 0 : length >= 0 && loopStart < 0 ? length : -1);
+    }
+
+    /**
+     * @return the segment shown at the given time since the motion started,
+     * or -1 if the motion has ended by then
+     */
+    public int findSegment(long time) {
+        time = normalize(time);
+        if (time < 0) {
+            return -1;
+        }
+
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= time) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the time since the motion started at which the segment shown
+     * at the given time ends, or -1 if it never does
+     */
+    public long getSegmentEnd(long time) {
+        int segment = findSegment(time);
+        if (segment < 0 || durations[segment] < 0) {
+            return -1;
+        }
+        return time - normalize(time) + starts[segment] + durations[segment];
+    }
+
+    /**
+     * Maps a time past the end of the timeline back into its loop.
+     * @return the equivalent time within the segments, or -1 if ended
+     */
+    private long normalize(long time) {
+        time = Math.max(time, 0);
+        if (frames.length == 0) {
+            return -1;
+        }
+        if (length < 0 || time < length) {
+            return time;
+        }
+        if (loopStart < 0) {
+            return -1;
+        }
+
+        int loopBegin = starts[loopStart];
+        return loopBegin + (time - loopBegin) % (length - loopBegin);
+    }
+
+    /**
+     * Builds a timeline out of nested items, mirroring the structure of the
+     * skin XML: frames, and repeats that may be bounded in time.
+     */
+    public static class Builder {
+        private final ArrayList<Track> stack = new ArrayList<Track>();
+
+        public Builder() {
+            stack.add(new Track());
+        }
+
+        /**
+         * @param duration msec, or negative to show the frame forever
+         */
+        public Builder addFrame(int frame, int duration) {
+            Track track = new Track();
+            if (duration != 0) {
+                track.add(frame, duration < 0 ? -1 : duration);
+                track.hold = (duration < 0);
+            }
+            top().append(track);
+            return this;
+        }
+
+        public Builder beginRepeat() {
+            stack.add(new Track());
+            return this;
+        }
+
+        /**
+         * @param repeatCount times to play the items, negative for forever
+         * @param totalDuration msec after which to cut the repeat, or negative
+         */
+        public Builder endRepeat(int repeatCount, int totalDuration) {
+            if (stack.size() <= 1) {
+                throw new IllegalStateException("no repeat to end");
+            }
+            Track body = stack.remove(stack.size() - 1);
+            top().append(body.repeat(repeatCount).cut(totalDuration));
+            return this;
+        }
+
+        /**
+         * @param totalDuration msec after which to end the motion, or negative
+         */
+        public Timeline build(int totalDuration) {
+            if (stack.size() != 1) {
+                throw new IllegalStateException("unterminated repeat");
+            }
+            return new Timeline(top().cut(totalDuration).merge());
+        }
+
+        private Track top() {
+            return stack.get(stack.size() - 1);
+        }
+    }
+
+    private static class Track {
+        private int[] frames = new int[4];
+        private int[] durations = new int[4];
+        private int size = 0;
+        private int loopStart = -1;
+        private boolean hold = false;
+
+        private boolean isInfinite() {
+            return loopStart >= 0 || hold;
+        }
+
+        private long getLength() {
+            long length = 0;
+            for (int i = 0; i < size; i++) {
+                length += Math.max(durations[i], 0);
+            }
+            return length;
+        }
+
+        private void add(int frame, int duration) {
+            if (size == frames.length) {
+                if (size >= MAX_SEGMENTS) {
+                    throw new IllegalArgumentException("motion is too long");
+                }
+                int[] nframes = new int[size * 2];
+                int[] ndurations = new int[size * 2];
+                System.arraycopy(frames, 0, nframes, 0, size);
+                System.arraycopy(durations, 0, ndurations, 0, size);
+                frames = nframes;
+                durations = ndurations;
+            }
+            frames[size] = frame;
+            durations[size] = duration;
+            size++;
+        }
+
+        /**
+         * Plays other after this one; nothing after an infinite track shows.
+         */
+        private void append(Track other) {
+            if (isInfinite()) {
+                return;
+            }
+            if (other.loopStart >= 0) {
+                loopStart = size + other.loopStart;
+            }
+            hold = other.hold;
+            for (int i = 0; i < other.size; i++) {
+                add(other.frames[i], other.durations[i]);
+            }
+        }
+
+        private Track repeat(int count) {
+            if (isInfinite() || getLength() == 0) {
+                return this;
+            }
+            if (count < 0) {
+                loopStart = 0;
+                return this;
+            }
+
+            int n = size;
+            for (int r = 1; r < count; r++) {
+                for (int i = 0; i < n; i++) {
+                    add(frames[i], durations[i]);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Cuts the track at the given time, so it is always finite.
+         */
+        private Track cut(int total) {
+            if (total < 0) {
+                return this;
+            }
+
+            Track track = new Track();
+            int time = 0;
+            int i = 0;
+            while (time < total) {
+                if (i == size) {
+                    if (loopStart < 0) {
+                        break;
+                    }
+                    i = loopStart;
+                }
+
+                int duration = (durations[i] < 0 ? total - time :
+                        Math.min(durations[i], total - time));
+                if (duration > 0) {
+                    track.add(frames[i], duration);
+                }
+                time += duration;
+                i++;
+            }
+            return track;
+        }
+
+        /**
+         * Joins adjacent segments showing the same frame, so every segment
+         * boundary is a visible change.
+         */
+        private Track merge() {
+            Track track = new Track();
+            for (int i = 0; i < size; i++) {
+                int last = track.size - 1;
+                if (i == loopStart) {
+                    track.loopStart = track.size;
+                } else if (last >= 0 && track.frames[last] == frames[i] &&
+                        track.durations[last] >= 0) {
+                    track.durations[last] = (durations[i] < 0 ? -1 :
+                            track.durations[last] + durations[i]);
+                    continue;
+                }
+                track.add(frames[i], durations[i]);
+            }
+            track.hold = hold;
+            return track;
+        }
+    }
+}
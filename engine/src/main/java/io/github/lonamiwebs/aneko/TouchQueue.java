@@ -0,0 +1,71 @@
+package io.github.lonamiwebs.aneko;
+
+/**
+ * Lock-free ring of touch events, written by the UI thread and read by the
+ * render thread. Only one thread may call {@link #offer} and only one
+ * thread may call {@link #poll}.
+ */
+public class TouchQueue {
+    public static final int TYPE_TARGET = 0;
+    public static final int TYPE_CANCEL = 1;
+
+    private final int mask;
+    private final int[] types;
+    private final float[] xs;
+    private final float[] ys;
+
+    private volatile int head = 0; // next to read, written by the reader
+    private volatile int tail = 0; // next to write, written by the writer
+
+    /**
+     * @param capacity a power of two
+     */
+    public TouchQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        mask = capacity - 1;
+        types = new int[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+    }
+
+    /**
+     * @return false if the queue is full and the event was dropped
+     */
+    public boolean offer(int type, float x, float y) {
+        int t = tail;
+        if (t - head > mask) {
+            return false;
+        }
+
+        int i = t & mask;
+        types[i] = type;
+        xs[i] = x;
+        ys[i] = y;
+        tail = t + 1; // publishes the slot
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Removes the oldest event into out as {x, y}.
+     * @return its type, or -1 if the queue is empty
+     */
+    public int poll(float[] out) {
+        int h = head;
+        if (h == tail) {
+            return -1;
+        }
+
+        int i = h & mask;
+        int type = types[i];
+        out[0] = xs[i];
+        out[1] = ys[i];
+        head = h + 1; // frees the slot
+        return type;
+    }
+}
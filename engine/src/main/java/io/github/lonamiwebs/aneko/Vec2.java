@@ -0,0 +1,27 @@
+package io.github.lonamiwebs.aneko;
+
+/**
+ * Mutable pair of floats, for positions and directions.
+ */
+public class Vec2 {
+    public float x;
+    public float y;
+
+    public Vec2() {
+    }
+
+    public Vec2(float _x, float _y) {
+        x = _x;
+        y = _y;
+    }
+
+    public void set(float _x, float _y) {
+        x = _x;
+        y = _y;
+    }
+
+    @Override
+    public String toString() {
+        return "Vec2(" + x + ", " + y + ")";
+    }
+}
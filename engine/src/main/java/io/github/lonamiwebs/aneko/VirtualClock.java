@@ -0,0 +1,51 @@
+package io.github.lonamiwebs.aneko;
+
+/**
+ * A clock that only moves when told to, so hours of motion can be played
+ * in as long as it takes to run the timers.
+ */
+public class VirtualClock implements Clock {
+    private long time;
+
+    public VirtualClock() {
+        this(0);
+    }
+
+    public VirtualClock(long _time) {
+        time = _time;
+    }
+
+    @Override
+    public long nanoTime() {
+        return time;
+    }
+
+    public void set(long _time) {
+        if (_time < time) {
+            throw new IllegalArgumentException(
+                    "time cannot go backwards: " + _time + " < " + time);
+        }
+        time = _time;
+    }
+
+    public void advance(long nanos) {
+        set(time + nanos);
+    }
+
+    /**
+     * Moves time forward to the given nsec, running every timer of the
+     * clock at its exact deadline on the way, including the timers they
+     * schedule in turn.
+     */
+    public void advanceTo(long _time, AnimationClock clock) {
+        while (true) {
+            long next = clock.getNextDeadline();
+            if (next < 0 || next > _time) {
+                break;
+            }
+            set(Math.max(next, time));
+            clock.tick(time, 0);
+        }
+        set(_time);
+    }
+}
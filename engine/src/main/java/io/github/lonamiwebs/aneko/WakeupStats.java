@@ -0,0 +1,76 @@
+package io.github.lonamiwebs.aneko;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts the times the animation thread wakes up, by what woke it. With
+ * the cat on screen all day, wakeups are most of its battery cost.
+ * <p>
+ * An {@link AnimationClock} given one of these counts each tick once, for
+ * the earliest timer it runs; touches are counted by whoever handles them.
+ */
+public class WakeupStats {
+    public static final int CAUSE_NONE = 0; // woke up but nothing was due
+    public static final int CAUSE_MOVEMENT = 1; // physics step
+    public static final int CAUSE_FRAME = 2; // frame change or motion end
+    public static final int CAUSE_TOUCH = 3;
+    public static final int CAUSE_OTHER = 4;
+
+    private static final String[] NAMES = {"none", "movement", "frame", "touch", "other"};
+
+    private final long[] counts = new long[NAMES.length];
+
+    public static String getCauseName(int cause) {
+        return NAMES[cause];
+    }
+
+    public void record(int cause) {
+        if (cause < 0 || cause >= counts.length) {
+            throw new IllegalArgumentException("unknown wakeup cause: " + cause);
+        }
+        counts[cause]++;
+    }
+
+    public long getCount(int cause) {
+        return counts[cause];
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+    }
+
+    /**
+     * Prints the counts, and how many that makes per hour.
+     * @param elapsed nsec the counts were taken over
+     */
+    public void dump(PrintWriter pw, long elapsed) {
+        pw.print("Wakeups: ");
+        pw.print(getTotal());
+        pw.print(", ");
+        pw.print(perHour(getTotal(), elapsed));
+        pw.println(" per hour");
+        for (int i = 0; i < counts.length; i++) {
+            pw.print("  ");
+            pw.print(NAMES[i]);
+            pw.print(": ");
+            pw.print(counts[i]);
+            pw.print(", ");
+            pw.print(perHour(counts[i], elapsed));
+            pw.println(" per hour");
+        }
+    }
+
+    private static long perHour(long count, long elapsed) {
+        return (elapsed > 0 ? (long) (count * 3600e9 / elapsed) : 0);
+    }
+}
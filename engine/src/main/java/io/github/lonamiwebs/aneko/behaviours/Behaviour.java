@@ -0,0 +1,86 @@
+package io.github.lonamiwebs.aneko.behaviours;
+
+import java.util.Random;
+
+import io.github.lonamiwebs.aneko.SpatialHash;
+import io.github.lonamiwebs.aneko.Vec2;
+
+
+public abstract class Behaviour {
+    protected final Random random = new Random();
+
+    /**
+     * @return the name {@link #fromName} knows this behaviour by
+     */
+    public abstract String getName();
+
+    /**
+     * Makes the targets picked from now on repeat for the same seed, so a
+     * recorded run can be replayed.
+     */
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Calculates the new target position for the neko.
+     * @param x desired target x position
+     * @param y desired target y position
+     * @param curX current x position
+     * @param curY current y position
+     * @param displayWidth display width
+     * @param displayHeight display height
+     * @param out receives the new position
+     */
+    public abstract void getTargetPosition(float x, float y, float curX, float curY,
+                                           int displayWidth, int displayHeight, Vec2 out);
+
+    /**
+     * Calculates the new target position for the neko, knowing where the
+     * other nekos are. Behaviours that care about them override this.
+     * @param neighbours positions of every neko, including this one
+     * @param self this neko within neighbours
+     * @see #getTargetPosition(float, float, float, float, int, int, Vec2)
+     */
+    public void getTargetPosition(float x, float y, float curX, float curY,
+                                  int displayWidth, int displayHeight,
+                                  SpatialHash neighbours, int self, Vec2 out) {
+        getTargetPosition(x, y, curX, curY, displayWidth, displayHeight, out);
+    }
+
+    /**
+     * @return whether the target depends on the other nekos, so it has to
+     * be calculated again every step while moving
+     */
+    public boolean followsNeighbours() {
+        return false;
+    }
+
+    public static Behaviour fromIndex(int index) {
+        switch (index) {
+            case 0:
+                return new BehaviourCloser();
+            case 1:
+                return new BehaviourFurther();
+            case 3:
+                return new BehaviourFlock();
+            case 2:
+            default:
+                return new BehaviourWhimsical();
+        }
+    }
+
+    public static Behaviour fromName(String name) {
+        switch (name) {
+            case "closer":
+                return new BehaviourCloser();
+            case "further":
+                return new BehaviourFurther();
+            case "flock":
+                return new BehaviourFlock();
+            case "whimsical":
+            default:
+                return new BehaviourWhimsical();
+        }
+    }
+}
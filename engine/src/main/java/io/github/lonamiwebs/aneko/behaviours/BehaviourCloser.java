@@ -0,0 +1,17 @@
+package io.github.lonamiwebs.aneko.behaviours;
+
+
+import io.github.lonamiwebs.aneko.Vec2;
+
+public class BehaviourCloser extends Behaviour {
+    @Override
+    public String getName() {
+        return "closer";
+    }
+
+    @Override
+    public void getTargetPosition(float x, float y, float curX, float curY,
+                                  int displayWidth, int displayHeight, Vec2 out) {
+        out.set(x, y);
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.lonamiwebs.aneko.behaviours;
+
+
+import io.github.lonamiwebs.aneko.SpatialHash;
+import io.github.lonamiwebs.aneko.Vec2;
+
+/**
+ * Follows the target as a group: each neko keeps apart from the nekos
+ * next to it (separation), heads the way they are heading (alignment)
+ * and stays close to them (cohesion). Only a bounded number of neighbours
+ * is looked at, so a step costs the same however large the group is.
+ */
+public class BehaviourFlock extends Behaviour {
+    public static final int DEF_MAX_NEIGHBOURS = 8;
+
+    private static final float RADIUS_CELLS = 2; // neighbour radius, in grid cells
+    private static final float SEPARATION_WEIGHT = 1f;
+    private static final float ALIGNMENT_TIME = 0.5f; // sec of neighbour velocity
+    private static final float COHESION_WEIGHT = 0.3f;
+
+    private final int[] found; // neighbours of the last query
+
+    public BehaviourFlock() {
+        this(DEF_MAX_NEIGHBOURS);
+    }
+
+    /**
+     * @param maxNeighbours how many neighbours to look at, at most
+     */
+    public BehaviourFlock(int maxNeighbours) {
+        if (maxNeighbours < 1) {
+            throw new IllegalArgumentException(
+                    "maxNeighbours must be positive: " + maxNeighbours);
+        }
+        found = new int[maxNeighbours];
+    }
+
+    public int getMaxNeighbours() {
+        return found.length;
+    }
+
+    @Override
+    public String getName() {
+        return "flock";
+    }
+
+    @Override
+    public void getTargetPosition(float x, float y, float curX, float curY,
+                                  int displayWidth, int displayHeight, Vec2 out) {
+        out.set(x, y);
+    }
+
+    @Override
+    public void getTargetPosition(float x, float y, float curX, float curY,
+                                  int displayWidth, int displayHeight,
+                                  SpatialHash neighbours, int self, Vec2 out) {
+        float radius = neighbours.getCellSize() * RADIUS_CELLS;
+        int count = neighbours.query(curX, curY, radius, self, found);
+        if (count == 0) {
+            out.set(x, y);
+            return;
+        }
+
+        float sepX = 0, sepY = 0;
+        float sumX = 0, sumY = 0;
+        float sumVx = 0, sumVy = 0;
+        for (int i = 0; i < count; i++) {
+            int other = found[i];
+            float ox = neighbours.getX(other);
+            float oy = neighbours.getY(other);
+            float dx = curX - ox;
+            float dy = curY - oy;
+            float dist = (float) Math.sqrt(dx * dx + dy * dy);
+            if (dist < 1) {
+                // on top of each other, split them by slot
+                dx = (self < other ? -1 : 1);
+                dy = 0;
+                dist = 1;
+            }
+
+            // the closer, the harder they push, up to a whole radius
+            float push = (radius - dist) / dist;
+            sepX += dx * push;
+            sepY += dy * push;
+            sumX += ox;
+            sumY += oy;
+            sumVx += neighbours.getVelX(other);
+            sumVy += neighbours.getVelY(other);
+        }
+
+        float nx = x + SEPARATION_WEIGHT * sepX / count +
+                ALIGNMENT_TIME * sumVx / count +
+                COHESION_WEIGHT * (sumX / count - curX);
+        float ny = y + SEPARATION_WEIGHT * sepY / count +
+                ALIGNMENT_TIME * sumVy / count +
+                COHESION_WEIGHT * (sumY / count - curY);
+        out.set(Math.min(Math.max(nx, 0), displayWidth - 1),
+                Math.min(Math.max(ny, 0), displayHeight - 1));
+    }
+
+    @Override
+    public boolean followsNeighbours() {
+        return true;
+    }
+}
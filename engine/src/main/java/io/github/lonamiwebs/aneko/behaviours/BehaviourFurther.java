@@ -0,0 +1,50 @@
+package io.github.lonamiwebs.aneko.behaviours;
+
+
+import io.github.lonamiwebs.aneko.Vec2;
+
+public class BehaviourFurther extends Behaviour {
+    @Override
+    public String getName() {
+        return "further";
+    }
+
+    @Override
+    public void getTargetPosition(float x, float y, float curX, float curY,
+                                  int displayWidth, int displayHeight, Vec2 out) {
+        float dx = displayWidth / 2f - x;
+        float dy = displayHeight / 2f - y;
+        if (dx == 0 && dy == 0) {
+            float ang = random.nextFloat() * (float) Math.PI * 2;
+            dx = (float) Math.cos(ang);
+            dy = (float) Math.sin(ang);
+        }
+        if (dx < 0) {
+            dx = -dx;
+            dy = -dy;
+        }
+
+        float e1x, e1y, e2x, e2y;
+        if (dy > dx * displayHeight / displayWidth || dy < -dx * displayHeight / displayWidth) {
+            float dxdy = dx / dy;
+            e1x = (displayWidth - displayHeight * dxdy) / 2f;
+            e1y = 0;
+            e2x = (displayWidth + displayHeight * dxdy) / 2f;
+            e2y = displayHeight;
+        } else {
+            float dydx = dy / dx;
+            e1x = 0;
+            e1y = (displayHeight - displayWidth * dydx) / 2f;
+            e2x = displayWidth;
+            e2y = (displayHeight + displayWidth * dydx) / 2f;
+        }
+
+        double d1 = Math.hypot(e1x - x, e1y - y);
+        double d2 = Math.hypot(e2x - x, e2y - y);
+        float ex = (d1 > d2 ? e1x : e2x);
+        float ey = (d1 > d2 ? e1y : e2y);
+
+        float r = 0.9f + random.nextFloat() * 0.1f;
+        out.set(ex * r + x * (1 - r), ey * r + y * (1 - r));
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.lonamiwebs.aneko.behaviours;
+
+
+import io.github.lonamiwebs.aneko.Vec2;
+
+public class BehaviourWhimsical extends Behaviour {
+    @Override
+    public String getName() {
+        return "whimsical";
+    }
+
+    @Override
+    public void getTargetPosition(float x, float y, float curX, float curY,
+                                  int displayWidth, int displayHeight, Vec2 out) {
+        float minWh2 = Math.min(displayWidth, displayHeight) / 2f;
+        float r = random.nextFloat() * minWh2 + minWh2;
+        float a = random.nextFloat() * 360;
+        float nx = curX + r * (float) Math.cos(a);
+        float ny = curY + r * (float) Math.sin(a);
+
+        if (nx < 0) nx = -nx;
+        else nx = nx >= displayWidth ? displayWidth * 2 - nx - 1 : nx;
+
+        if (ny < 0) ny = -ny;
+        else ny = ny >= displayHeight ? displayHeight * 2 - ny - 1 : ny;
+
+        out.set(nx, ny);
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.lonamiwebs.aneko;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the references {@link MotionGraph.Builder} resolves and rejects,
+ * which skins loaded on the device go through as well.
+ */
+public class MotionGraphTest {
+    @Test
+    public void resolvesNextStateChains() {
+        MotionGraph graph = newBuilder()
+                .addState("a", null, "b", false, false, 0, 0)
+                .addState("b", null, "stop", false, false, 0, 0)
+                .build();
+        assertEquals(MotionGraph.STATE_NONE, graph.getNextState(0));
+        assertEquals(2, graph.getNextState(1));
+        assertEquals(0, graph.getNextState(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNextStateCycles() {
+        newBuilder()
+                .addState("a", null, "b", false, false, 0, 0)
+                .addState("b", null, "a", false, false, 0, 0)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNextStateToItself() {
+        newBuilder()
+                .addState("a", null, "a", false, false, 0, 0)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingNextState() {
+        newBuilder()
+                .addState("a", null, "nowhere", false, false, 0, 0)
+                .build();
+    }
+
+    private static MotionGraph.Builder newBuilder() {
+        return new MotionGraph.Builder()
+                .addState("stop", null, null, false, false, 0, 0);
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.lonamiwebs.aneko;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays the bundled neko skin on a virtual clock and checks which states
+ * it goes through, when, and where it ends up.
+ */
+public class MotionSimulationTest {
+    private static final long MSEC = 1000000L;
+    private static final long STEP_INTERVAL = 125 * MSEC; // the default physics rate
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+
+    private VirtualClock time;
+    private AnimationClock clock;
+    private MotionSimulation sim;
+    private MotionAgent neko;
+    private int lastState;
+    private final List<String> states = new ArrayList<String>(); // "state@msec"
+    private final List<Long> frameChanges = new ArrayList<Long>(); // msec
+    private final List<Float> xs = new ArrayList<Float>(); // after every step
+
+    @Before
+    public void setUp() {
+        time = new VirtualClock();
+        clock = new AnimationClock(time);
+        clock.setTimerObserver(new AnimationClock.TimerObserver() {
+            @Override
+            public void onTimerRun(AnimationClock.Timer timer, long lateness) {
+                if (timer.getCause() == WakeupStats.CAUSE_FRAME) {
+                    frameChanges.add(time.nanoTime() / MSEC);
+                }
+            }
+        });
+        sim = new MotionSimulation(clock, WIDTH, HEIGHT, STEP_INTERVAL);
+        sim.setListener(new MotionSimulation.Listener() {
+            @Override
+            public void onStep(MotionSimulation sim) {
+                xs.add(neko.getX());
+            }
+
+            @Override
+            public void onStateChanged(MotionSimulation.Agent agent) {
+            }
+        });
+    }
+
+    @Test
+    public void idleNekoWaitsThenSleeps() {
+        addNeko(WIDTH / 2, HEIGHT / 2);
+        runUntil(24000);
+
+        // stop plays for 8 s, and wait has no next state
+        assertEquals(Arrays.asList("stop@0", "wait@8000"), states);
+        assertEquals(Arrays.asList(
+                // stop: scratching from 5 s, then sitting until the end
+                5000L, 5250L, 5500L, 5750L, 6000L, 6250L, 6500L, 6750L, 7000L, 8000L,
+                // wait: scratching from 4 s in, a yawn at 11 s, asleep from 12.5 s
+                12000L, 12250L, 12500L, 12750L, 13000L, 13250L, 13500L, 13750L, 14000L,
+                19000L, 20500L, 21500L, 22500L, 23500L), frameChanges);
+        assertEquals(WIDTH / 2, neko.getX(), 0);
+        assertEquals(HEIGHT / 2, neko.getY(), 0);
+    }
+
+    @Test
+    public void nekoNextToWallScratchesItThenWaits() {
+        addNeko(10, HEIGHT / 2);
+        runUntil(12000);
+
+        // the wall is checked once stop ends, and wallLeft scratches 3 times
+        assertEquals(Arrays.asList("stop@0", "wallLeft@8000", "wait@9500"), states);
+        // moved against the wall, half a sprite from the edge
+        assertEquals(neko.getGraph().getSpriteWidth(neko.getState()) / 2f, neko.getX(), 0);
+        assertEquals(HEIGHT / 2, neko.getY(), 0);
+    }
+
+    @Test
+    public void touchedNekoWakesUpAndRunsThere() {
+        addNeko(100, HEIGHT / 2);
+        runUntil(1000);
+        sim.setTargetPosition(WIDTH - 100, HEIGHT / 2);
+        runUntil(30000);
+
+        // awake for 750 msec, then running right at up to 100 px/sec until
+        // it arrives, and stopped from there
+        assertEquals(Arrays.asList("stop@0", "awake@1000", "moveRight@1750",
+                "stop@11250", "wait@19250"), states);
+
+        float proximity = neko.getGraph().getProximityDistance();
+        assertEquals(WIDTH - 100, neko.getX(), proximity);
+        assertEquals(HEIGHT / 2, neko.getY(), proximity);
+        for (int i = 1; i < xs.size(); i++) {
+            assertTrue("moved back at step " + i + ": " + xs,
+                    xs.get(i) >= xs.get(i - 1));
+        }
+    }
+
+    private void addNeko(float x, float y) {
+        neko = sim.addAgent(Skins.neko(), Behaviour.fromName("closer"), x, y);
+        lastState = MotionGraph.STATE_NONE;
+        recordState();
+    }
+
+    /**
+     * Runs every timer up to the given msec, noting each state change at
+     * the time of the timer that made it.
+     */
+    private void runUntil(long msec) {
+        long end = msec * MSEC;
+        while (true) {
+            long next = clock.getNextDeadline();
+            if (next < 0 || next > end) {
+                break;
+            }
+            time.set(Math.max(next, time.nanoTime()));
+            clock.tick(time.nanoTime(), 0);
+            recordState();
+        }
+        time.set(end);
+    }
+
+    private void recordState() {
+        if (neko.getState() != lastState) {
+            lastState = neko.getState();
+            states.add(neko.getGraph().getStateName(lastState) + "@" + time.nanoTime() / MSEC);
+        }
+    }
+}
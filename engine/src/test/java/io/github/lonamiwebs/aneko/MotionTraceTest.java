@@ -0,0 +1,101 @@
+package io.github.lonamiwebs.aneko;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records a few minutes of nekos driven the way the service drives them,
+ * woken up on vsync with jitter and the odd long stall, touched, resized
+ * and reskinned in between, and checks that replaying the trace gives the
+ * very same steps.
+ */
+public class MotionTraceTest {
+    private static final long MSEC = 1000000L;
+    private static final long SEC = 1000 * MSEC;
+    private static final long FRAME = SEC / 60;
+    private static final long FRAME_SLACK = 8 * MSEC; // as the service
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+    private static final String[] BEHAVIOURS = {"closer", "further", "whimsical", "flock"};
+
+    @Test
+    public void replayMatchesRecording() throws IOException {
+        VirtualClock time = new VirtualClock(5 * SEC);
+        AnimationClock clock = new AnimationClock(time);
+        MotionSimulation sim = new MotionSimulation(clock, WIDTH, HEIGHT, SEC / 30);
+        MotionTrace.Result recorded = new MotionTrace.Result();
+        sim.setListener(recorded);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sim.startRecording(out, 2);
+
+        Random random = new Random(7);
+        MotionGraph[] graphs = {Skins.neko(), Skins.neko()};
+        MotionSimulation.Agent[] agents = new MotionSimulation.Agent[4];
+        for (int i = 0; i < agents.length; i++) {
+            // loading a skin takes a while, and the other nekos go on meanwhile
+            time.advance(random.nextInt(200) * MSEC);
+            agents[i] = new MotionSimulation.Agent(sim);
+            sim.setGraph(agents[i], graphs[0]);
+            sim.setBehaviour(agents[i], Behaviour.fromName(BEHAVIOURS[i]), random.nextLong());
+            agents[i].setPosition(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+            agents[i].setTarget(WIDTH / 2, HEIGHT / 2);
+            sim.addAgent(agents[i]);
+        }
+
+        long vsync = time.nanoTime();
+        long end = vsync + 300 * SEC;
+        long skipped = 0;
+        while (vsync < end) {
+            vsync += FRAME;
+            if (random.nextInt(500) == 0) {
+                // the thread stalls for longer than the steps may fall behind
+                vsync += 2 * SEC;
+                skipped++;
+            }
+            // inputs arrive between frames, sometimes before what is already due
+            if (random.nextInt(20) == 0) {
+                time.set(Math.max(vsync - random.nextInt((int) FRAME), time.nanoTime()));
+                input(sim, random, agents, graphs);
+            }
+            time.set(vsync + random.nextInt(3) * MSEC);
+            clock.tick(time.nanoTime(), FRAME_SLACK);
+        }
+        sim.stopRecording();
+        assertTrue("nothing stalled", skipped > 0);
+
+        MotionTrace.Result replayed =
+                MotionTrace.replay(new ByteArrayInputStream(out.toByteArray()), 0);
+        assertEquals(2, replayed.getDensity(), 0);
+        assertTrue("too few steps ran: " + recorded.getStepCount(),
+                recorded.getStepCount() > 1000);
+        assertEquals(recorded.getStepCount(), replayed.getStepCount());
+        assertEquals(recorded.getHash(), replayed.getHash());
+    }
+
+    private static void input(MotionSimulation sim, Random random,
+                              MotionSimulation.Agent[] agents, MotionGraph[] graphs) {
+        int what = random.nextInt(20);
+        if (what == 0) {
+            sim.forceStop();
+        } else if (what == 1) {
+            sim.setDisplay(WIDTH - random.nextInt(200), HEIGHT - random.nextInt(200));
+        } else if (what == 2) {
+            sim.setBehaviour(agents[random.nextInt(agents.length)],
+                    Behaviour.fromName(BEHAVIOURS[random.nextInt(BEHAVIOURS.length)]),
+                    random.nextLong());
+        } else if (what == 3) {
+            sim.setGraph(agents[random.nextInt(agents.length)],
+                    graphs[random.nextInt(graphs.length)]);
+        } else {
+            sim.setTargetPosition(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+        }
+    }
+}
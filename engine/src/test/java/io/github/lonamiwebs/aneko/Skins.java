@@ -0,0 +1,17 @@
+package io.github.lonamiwebs.aneko;
+
+import java.io.File;
+
+/**
+ * The skins bundled with the app, read from its sources.
+ */
+final class Skins {
+    private static final File RES = new File("../app/src/main/res");
+
+    private Skins() {
+    }
+
+    static MotionGraph neko() {
+        return SkinXml.load(RES, "neko");
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.lonamiwebs.aneko;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the grid queries against checking every agent, on random crowds
+ * that also stray off the display.
+ */
+public class SpatialHashTest {
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+    private static final int AGENTS = 300;
+    private static final int QUERIES = 500;
+    private static final long[] SEEDS = {1, 2, 3, 42, 1234567};
+
+    @Test
+    public void queryFindsWhatBruteForceFinds() {
+        for (long seed : SEEDS) {
+            Random random = new Random(seed);
+            float[] x = new float[AGENTS], y = new float[AGENTS];
+            SpatialHash grid = newGrid(random, x, y);
+            int[] out = new int[AGENTS];
+
+            for (int q = 0; q < QUERIES; q++) {
+                float px = randomCoord(random, WIDTH), py = randomCoord(random, HEIGHT);
+                float radius = random.nextFloat() * 200;
+                int exclude = random.nextInt(AGENTS + 1) - 1;
+
+                int[] found = Arrays.copyOf(out, grid.query(px, py, radius, exclude, out));
+                Arrays.sort(found);
+                assertArrayEquals("seed " + seed + ", query " + q,
+                        bruteQuery(x, y, px, py, radius, exclude), found);
+            }
+        }
+    }
+
+    @Test
+    public void nearestFindsWhatBruteForceFinds() {
+        for (long seed : SEEDS) {
+            Random random = new Random(seed);
+            float[] x = new float[AGENTS], y = new float[AGENTS];
+            SpatialHash grid = newGrid(random, x, y);
+
+            for (int q = 0; q < QUERIES; q++) {
+                float px = randomCoord(random, WIDTH), py = randomCoord(random, HEIGHT);
+                float maxRadius = random.nextFloat() * 600;
+                int exclude = random.nextInt(AGENTS + 1) - 1;
+
+                int expected = bruteNearest(x, y, px, py, maxRadius, exclude);
+                int actual = grid.nearest(px, py, maxRadius, exclude);
+                String message = "seed " + seed + ", query " + q;
+                if (expected < 0) {
+                    assertEquals(message, -1, actual);
+                } else {
+                    // ties may pick either agent, as long as it is as near
+                    assertEquals(message, dist2(x, y, expected, px, py),
+                            dist2(x, y, actual, px, py), 0);
+                }
+            }
+        }
+    }
+
+    private static SpatialHash newGrid(Random random, float[] x, float[] y) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] = randomCoord(random, WIDTH);
+            y[i] = randomCoord(random, HEIGHT);
+        }
+        SpatialHash grid = new SpatialHash(16 + random.nextInt(64));
+        grid.setBounds(WIDTH, HEIGHT);
+        grid.build(x, y, x.length);
+        return grid;
+    }
+
+    /**
+     * @return a coordinate mostly on the display, a tenth of a side past
+     * either edge at most
+     */
+    private static float randomCoord(Random random, int side) {
+        return (random.nextFloat() * 1.2f - 0.1f) * side;
+    }
+
+    private static int[] bruteQuery(float[] x, float[] y, float px, float py,
+                                    float radius, int exclude) {
+        int[] found = new int[x.length];
+        int count = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (i != exclude && dist2(x, y, i, px, py) <= radius * radius) {
+                found[count++] = i;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static int bruteNearest(float[] x, float[] y, float px, float py,
+                                    float maxRadius, int exclude) {
+        int best = -1;
+        float bestDist2 = maxRadius * maxRadius;
+        for (int i = 0; i < x.length; i++) {
+            float d2 = dist2(x, y, i, px, py);
+            if (i != exclude && d2 <= bestDist2) {
+                best = i;
+                bestDist2 = d2;
+            }
+        }
+        return best;
+    }
+
+    private static float dist2(float[] x, float[] y, int agent, float px, float py) {
+        float dx = x[agent] - px;
+        float dy = y[agent] - py;
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.lonamiwebs.aneko;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the movement tick of a few nekos with every behaviour, touched now
+ * and then, and counts the bytes it allocates: none, once warmed up.
+ */
+public class TickAllocationTest {
+    private static final long SEC = 1000000000L;
+    private static final long STEP_INTERVAL = SEC / 60;
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+    private static final int TICKS = 10000;
+    private static final int TOUCH_INTERVAL = 97; // ticks, so touches land on every phase
+    private static final int ROUNDS = 5;
+
+    private VirtualClock time;
+    private AnimationClock clock;
+    private MotionSimulation sim;
+    private int touches;
+
+    @Test
+    public void tickAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = getThreadBean();
+        long thread = Thread.currentThread().getId();
+
+        time = new VirtualClock();
+        clock = new AnimationClock(time);
+        sim = new MotionSimulation(clock, WIDTH, HEIGHT, STEP_INTERVAL);
+        MotionGraph graph = Skins.neko();
+        String[] behaviours = {"closer", "further", "whimsical", "flock"};
+        for (int i = 0; i < behaviours.length; i++) {
+            sim.addAgent(graph, Behaviour.fromName(behaviours[i]), WIDTH / 4 * i + 100, HEIGHT / 2);
+        }
+
+        // class loading, lazy buffers and the JIT allocate while warming up
+        runTicks(TICKS);
+
+        long overhead = threads.getThreadAllocatedBytes(thread);
+        overhead = threads.getThreadAllocatedBytes(thread) - overhead;
+        // a deoptimization now and then re-materializes a few objects the
+        // JIT had scalar-replaced, so keep the quietest of a few rounds;
+        // an allocation in the tick itself shows up in every one of them
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long steps = sim.getStepCount();
+            long before = threads.getThreadAllocatedBytes(thread);
+            runTicks(TICKS);
+            allocated = Math.min(allocated,
+                    threads.getThreadAllocatedBytes(thread) - before - overhead);
+            assertTrue("too few steps ran: " + (sim.getStepCount() - steps),
+                    sim.getStepCount() - steps >= TICKS / 2);
+        }
+
+        assertEquals("bytes allocated over " + TICKS + " ticks", 0, allocated);
+    }
+
+    private void runTicks(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            if (i % TOUCH_INTERVAL == 0) {
+                // alternate corners, so the nekos keep running between them
+                touches++;
+                sim.setTargetPosition((touches & 1) * WIDTH, (touches & 2) / 2 * HEIGHT);
+            }
+            time.advanceTo(time.nanoTime() + STEP_INTERVAL, clock);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("allocations cannot be counted on this JVM",
+                bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
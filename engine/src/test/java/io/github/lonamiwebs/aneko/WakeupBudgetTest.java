@@ -0,0 +1,48 @@
+package io.github.lonamiwebs.aneko;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import io.github.lonamiwebs.aneko.behaviours.Behaviour;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays an hour of the neko skin's idle and sleep cycle on a virtual clock
+ * and fails if it took more wakeups than budgeted, so a change that polls
+ * every frame gets caught before it drains batteries.
+ */
+public class WakeupBudgetTest {
+    private static final long SEC = 1000000000L;
+    private static final long HOUR = 3600 * SEC;
+    private static final int WIDTH = 1080, HEIGHT = 1920;
+    private static final long STEP_INTERVAL = SEC / 8; // the default physics rate
+
+    // an idle hour takes 3685 frame changes and a single step to settle,
+    // so this leaves about 10% of headroom and a few steps to spare
+    private static final long MAX_WAKEUPS = 4050;
+    private static final long MAX_MOVEMENT_WAKEUPS = 20;
+
+    @Test
+    public void idleHourStaysWithinBudget() {
+        VirtualClock time = new VirtualClock();
+        AnimationClock clock = new AnimationClock(time);
+        WakeupStats wakeups = new WakeupStats();
+        clock.setWakeupStats(wakeups);
+
+        // nobody touches the screen: stop, wait, then sleep and yawn
+        MotionSimulation sim = new MotionSimulation(clock, WIDTH, HEIGHT, STEP_INTERVAL);
+        sim.addAgent(Skins.neko(), Behaviour.fromName("closer"), WIDTH / 2, HEIGHT / 2);
+        time.advanceTo(HOUR, clock);
+
+        StringWriter dump = new StringWriter();
+        wakeups.dump(new PrintWriter(dump), HOUR);
+        assertTrue("over budget, at most " + MAX_WAKEUPS + " wakeups allowed:\n" + dump,
+                wakeups.getTotal() <= MAX_WAKEUPS);
+        assertTrue("over budget, at most " + MAX_MOVEMENT_WAKEUPS +
+                        " movement wakeups allowed:\n" + dump,
+                wakeups.getCount(WakeupStats.CAUSE_MOVEMENT) <= MAX_MOVEMENT_WAKEUPS);
+    }
+}